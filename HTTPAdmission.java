@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * HTTPAdmission.java
+ *
+ * Version 1.0
+ * Zweck: Zulassung angenommener Verbindungen. Der Acceptor nimmt jede Verbindung sofort an (der
+ *        Kernel-Backlog laeuft also nicht unbemerkt voll) und reiht sie in eine begrenzte
+ *        Warteschlange ein. Ein Zulassungs-Thread uebergibt sie in Ankunftsreihenfolge an die
+ *        Bearbeitung, sobald eine Erlaubnis der admissionSem frei ist. Ist die Warteschlange voll,
+ *        wartet eine Verbindung laenger als admissionTimeout oder hat ihre IP-Adresse schon
+ *        maxConnectionsPerIp Verbindungen, erhaelt sie sofort 503 statt unbegrenzt zu warten.
+ *        Jeder HTTPListenerShard hat eine eigene Zulassung; Erlaubnisse und Zaehler je IP-Adresse
+ *        gehoeren dem Server und gelten fuer alle Shards gemeinsam.
+ */
+class HTTPAdmission {
+    /* Eine angenommene, noch nicht zugelassene Verbindung */
+    private static final class Pending {
+        final SocketChannel channel;
+        final InetAddress remote;
+        final long acceptedAt = System.nanoTime();
+
+        Pending(SocketChannel channel, InetAddress remote) {
+            this.channel = channel;
+            this.remote = remote;
+        }
+    }
+
+    private final HTTPServer server;
+    private final Consumer<SocketChannel> dispatcher;
+    private final ArrayBlockingQueue<Pending> queue;
+    private final Thread admissionThread;
+    private volatile boolean running = true;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /*
+     * Konstruktor mit Parametern: Server (Grenzen, admissionSem), Name des Zulassungs-Threads,
+     * Laenge der Warteschlange, Uebergabe einer zugelassenen Verbindung
+     */
+    public HTTPAdmission(HTTPServer server, String name, int pendingConnections, Consumer<SocketChannel> dispatcher) {
+        this.server = server;
+        this.dispatcher = dispatcher;
+        this.queue = new ArrayBlockingQueue<Pending>(Math.max(1, pendingConnections));
+        this.admissionThread = new Thread(this::admitLoop, name);
+        admissionThread.setDaemon(true);
+        admissionThread.start();
+    }
+
+    // Nimmt eine gerade angenommene Verbindung entgegen (Acceptor-Thread); blockiert nie
+    public void offer(SocketChannel channel) {
+        InetAddress remote = channel.socket().getInetAddress();
+        if (!acquireIp(server, remote)) {
+            reject(channel, "per_ip");
+            return;
+        }
+        if (!queue.offer(new Pending(channel, remote))) {
+            releaseIp(server, remote);
+            reject(channel, "queue_full");
+        }
+    }
+
+    // Gibt Erlaubnis und IP-Zaehler einer beendeten Verbindung frei (gleich, ueber welchen Shard sie kam)
+    static void release(HTTPServer server, InetAddress remote) {
+        server.admissionSem.release();
+        releaseIp(server, remote);
+    }
+
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    // Beendet den Zulassungs-Thread; noch wartende Verbindungen erhalten 503
+    public void close() {
+        running = false;
+        admissionThread.interrupt();
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            releaseIp(server, pending.remote);
+            reject(pending.channel, "shutdown");
+        }
+    }
+
+    private void admitLoop() {
+        while (running) {
+            Pending pending = null;
+            try {
+                pending = queue.poll(1, TimeUnit.SECONDS);
+                if (pending == null) {
+                    continue;
+                }
+                long waited = System.nanoTime() - pending.acceptedAt;
+                long remaining = TimeUnit.MILLISECONDS.toNanos(server.admissionTimeout) - waited;
+                if (remaining > 0 && server.admissionSem.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    server.metrics.recordAdmissionWait(System.nanoTime() - pending.acceptedAt);
+                    admitted.increment();
+                    dispatch(pending);
+                } else {
+                    releaseIp(server, pending.remote);
+                    reject(pending.channel, "queue_timeout");
+                }
+            } catch (InterruptedException e) {
+                /* close() beendet die Schleife; eine bereits entnommene Verbindung erhaelt wie die wartenden 503 */
+                if (pending != null) {
+                    releaseIp(server, pending.remote);
+                    reject(pending.channel, "shutdown");
+                }
+            }
+        }
+    }
+
+    private void dispatch(Pending pending) {
+        try {
+            dispatcher.accept(pending.channel);
+        } catch (RuntimeException e) {
+            /* z.B. RejectedExecutionException, wenn der Executor bereits beendet wird */
+            release(server, pending.remote);
+            reject(pending.channel, "shutdown");
+        }
+    }
+
+    private static boolean acquireIp(HTTPServer server, InetAddress remote) {
+        if (server.maxConnectionsPerIp <= 0) {
+            return true;
+        }
+        boolean[] accepted = {false};
+        server.connectionsPerIp.compute(remote, (address, count) -> {
+            int current = count == null ? 0 : count;
+            accepted[0] = current < server.maxConnectionsPerIp;
+            return accepted[0] ? current + 1 : count;
+        });
+        return accepted[0];
+    }
+
+    private static void releaseIp(HTTPServer server, InetAddress remote) {
+        if (server.maxConnectionsPerIp > 0) {
+            server.connectionsPerIp.computeIfPresent(remote, (address, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /*
+     * Antwortet mit 503 und schliesst die Verbindung (best effort). Der Kanal bleibt nicht-blockierend:
+     * geschrieben wird, solange der Socket Daten annimmt, ohne je zu warten, da Acceptor und
+     * Zulassungs-Thread unter Last nicht von einzelnen Clients aufgehalten werden duerfen. Der
+     * Sendepuffer einer frischen Verbindung ist leer, die kurze Antwort geht also praktisch immer ganz
+     * hinaus. Bereits eingetroffene Anfragebytes werden vorher gelesen, damit close() kein RST sendet,
+     * das die Antwort beim Client verwerfen wuerde.
+     */
+    private void reject(SocketChannel channel, String reason) {
+        rejected.increment();
+        server.metrics.connectionRejected(reason);
+        server.log.debug("Connection rejected (" + reason + ")");
+        HTTPResponse<String> response = HTTPResponses.text(HTTPResponse.HTTPStatusCode.SERVICE_UNAVAILABLE, "503 - Server busy, please retry!");
+        response.setHeader("Content-Length", String.valueOf(HTTPResponseEncoder.utf8Length(response.Body())));
+        response.setHeader("Retry-After", "1");
+        response.setHeader("Connection", "close");
+        ByteBuffer head = HTTPResponseEncoder.encode(response);
+        ByteBuffer body = HTTPResponseEncoder.separateBody(response);
+        ByteBuffer[] out = body != null ? new ByteBuffer[]{head, body} : new ByteBuffer[]{head};
+        try (channel) {
+            channel.configureBlocking(false);
+            channel.read(ByteBuffer.allocate(HTTPRequestParser.DEFAULT_MAX_REQUEST_LINE));
+            /* Teilweise geschrieben: weiter, solange der Socket Fortschritt macht */
+            long written;
+            do {
+                written = channel.write(out);
+            } while (written > 0 && out[out.length - 1].hasRemaining());
+            if (out[out.length - 1].hasRemaining()) {
+                server.log.debug("503 not fully sent, send buffer full");
+            } else {
+                channel.shutdownOutput();
+            }
+        } catch (IOException e) {
+            server.log.debug("Connection aborted by client!");
+        } finally {
+            HTTPResponseEncoder.releaseBuffer(head);
+        }
+    }
+}
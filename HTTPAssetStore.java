@@ -0,0 +1,424 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/*
+ * HTTPAssetStore.java
+ *
+ * Version 1.0
+ * Zweck: Unveraenderlicher Index aller statischen Dateien unterhalb von rootPath (Anfragepfad -->
+ *        Groesse, Aenderungszeit, Content-Type), beim Serverstart einmal eingelesen. Der Inhalt wird
+ *        per MappedByteBuffer aus dem Page-Cache des Betriebssystems geliefert, ohne Heap-Kopie und
+ *        ohne Dateisystemzugriff je Anfrage. Optional werden alle Dateien beim Start parallel
+ *        (Fork-Join) eingeblendet und einmal gelesen (ETag), sodass auch die erste Anfrage keinen
+ *        Plattenzugriff mehr ausloest. Ein Neuladen baut einen vollstaendigen neuen Index auf und
+ *        tauscht ihn atomar aus; laufende Antworten behalten ihre Sicht auf den alten Inhalt.
+ *        Dateien sollten dazu ersetzt (z.B. per rename) statt an Ort und Stelle ueberschrieben werden.
+ */
+public class HTTPAssetStore {
+    /* Groesste einblendbare Datei; groessere liefert der HTTPStaticFileHandler weiter per sendfile */
+    private static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+    /* Dateien je Teilaufgabe beim parallelen Vorladen */
+    private static final int PRELOAD_BATCH = 16;
+
+    /* Wartezeit in ms nach der letzten Dateiaenderung, bevor neu geladen wird (buendelt z.B. ein Deployment) */
+    private static final long RELOAD_DELAY = 500;
+
+    /* Grobe Groesse eines Indexeintrags ohne den Pfad (Objektkoepfe, File, HashMap-Knoten, Header-Strings) */
+    private static final int ENTRY_OVERHEAD = 320;
+
+    /* Metadaten einer Datei; der eingeblendete Inhalt entsteht beim Vorladen oder beim ersten Zugriff */
+    private static final class Asset {
+        final String path;
+        final File file;
+        final long length;
+        final long lastModified;
+        final String contentType;
+        volatile HTTPContentCache.Entry entry;
+
+        Asset(String path, File file, long length, long lastModified, String contentType) {
+            this.path = path;
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+
+        // Blendet die Datei ein und berechnet dabei den ETag (liest jede Seite einmal)
+        HTTPContentCache.Entry map() throws IOException {
+            HTTPContentCache.Entry mapped = entry;
+            if (mapped != null) {
+                return mapped;
+            }
+            synchronized (this) {
+                if (entry == null) {
+                    MappedByteBuffer content;
+                    /* Die Einblendung bleibt nach dem Schliessen des Kanals gueltig */
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        content = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    }
+                    entry = new HTTPContentCache.Entry(file, content, contentType, lastModified);
+                }
+                return entry;
+            }
+        }
+    }
+
+    /* Ein vollstaendig aufgebauter Index samt Kennzahlen seines Ladevorgangs; wird nur als Ganzes ersetzt */
+    private static final class Snapshot {
+        final Map<String, Asset> assets;
+        final long mappedBytes;
+        final long indexBytes;
+        final long scanMillis;
+        final long preloadMillis;
+        final int skipped;
+        /* Dauer der ersten Anfrage an diesen Index in ns (-1 = noch keine) */
+        volatile long firstRequestNanos = -1;
+
+        Snapshot(Map<String, Asset> assets, long mappedBytes, long indexBytes, long scanMillis, long preloadMillis, int skipped) {
+            this.assets = assets;
+            this.mappedBytes = mappedBytes;
+            this.indexBytes = indexBytes;
+            this.scanMillis = scanMillis;
+            this.preloadMillis = preloadMillis;
+            this.skipped = skipped;
+        }
+    }
+
+    /* Parallel vorladende Teilaufgabe ueber einen Ausschnitt der Dateiliste (wird nie serialisiert) */
+    @SuppressWarnings("serial")
+    private static final class Preload extends RecursiveAction {
+        private final List<Asset> assets;
+        private final int from;
+        private final int to;
+        private final HTTPLogger log;
+
+        Preload(List<Asset> assets, int from, int to, HTTPLogger log) {
+            this.assets = assets;
+            this.from = from;
+            this.to = to;
+            this.log = log;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PRELOAD_BATCH) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        /* Bereits eingeblendete Dateien kehren sofort zurueck */
+                        assets.get(i).map();
+                    } catch (IOException e) {
+                        /* Bleibt ungeladen und wird beim ersten Zugriff erneut versucht */
+                        log.error("Asset store failed to map " + assets.get(i).file, e);
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Preload(assets, from, middle, log), new Preload(assets, middle, to, log));
+        }
+    }
+
+    private final Path root;
+    private final boolean preload;
+    private final int parallelism;
+    /* Ziel des Manifests (null = keins schreiben) */
+    private final Path manifest;
+    private final HTTPLogger log;
+
+    private volatile Snapshot snapshot;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    /* Dateien, die erst bei der ersten Anfrage eingeblendet wurden, und die Dauer dafuer */
+    private final LongAdder coldLoads = new LongAdder();
+    private final LongAdder coldLoadNanos = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /*
+     * Konstruktor mit Parametern: Wurzelverzeichnis, alle Dateien beim Laden einblenden,
+     * Anzahl paralleler Vorlade-Threads, Manifest-Datei (null = keine), Protokoll fuer Hintergrundfehler.
+     * Der Index wird erst mit start() geladen.
+     */
+    public HTTPAssetStore(Path root, boolean preload, int parallelism, Path manifest, HTTPLogger log) {
+        this.root = root;
+        this.preload = preload;
+        this.parallelism = Math.max(1, parallelism);
+        this.manifest = manifest;
+        this.log = log;
+    }
+
+    // Laedt den Index erstmals und startet bei watch den WatchService; erst danach darf lookup aufgerufen werden
+    public void start(boolean watch) throws IOException {
+        reload();
+        if (watch) {
+            try {
+                watch();
+            } catch (IOException e) {
+                /* Ohne WatchService bleibt der geladene Index bis zum naechsten reload() gueltig */
+                log.warn("Asset store watcher not available: " + e);
+            }
+        }
+    }
+
+    // Liefert den (ggf. jetzt erst eingeblendeten) Inhalt zum Anfragepfad oder null, wenn er nicht im Index liegt
+    public HTTPContentCache.Entry lookup(String path) {
+        long start = System.nanoTime();
+        Snapshot current = snapshot;
+        Asset asset = current.assets.get(path);
+        if (asset == null) {
+            misses.increment();
+            return null;
+        }
+        HTTPContentCache.Entry entry = asset.entry;
+        if (entry == null) {
+            try {
+                entry = asset.map();
+            } catch (IOException e) {
+                /* Z.B. inzwischen geloescht: wie ein Fehlen im Index behandeln, der Handler liest von der Platte */
+                misses.increment();
+                return null;
+            }
+            coldLoads.increment();
+            coldLoadNanos.add(System.nanoTime() - start);
+        }
+        hits.increment();
+        if (current.firstRequestNanos < 0) {
+            current.firstRequestNanos = System.nanoTime() - start;
+        }
+        return entry;
+    }
+
+    /*
+     * Liest rootPath vollstaendig neu ein (bei preload inklusive Einblenden aller Dateien), schreibt
+     * das Manifest und ersetzt den bisherigen Index erst danach in einem Schritt.
+     */
+    public synchronized void reload() throws IOException {
+        long start = System.nanoTime();
+        int[] skipped = {0};
+        List<Asset> assets = scan(root, skipped);
+        if (snapshot != null) {
+            /* Unveraenderte Dateien behalten ihre Einblendung, nur neue und geaenderte werden gelesen */
+            for (Asset asset : assets) {
+                Asset previous = snapshot.assets.get(asset.path);
+                if (previous != null && previous.length == asset.length && previous.lastModified == asset.lastModified) {
+                    asset.entry = previous.entry;
+                }
+            }
+        }
+        long scanned = System.nanoTime();
+
+        if (preload && !assets.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new Preload(assets, 0, assets.size(), log));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        long preloaded = System.nanoTime();
+
+        Map<String, Asset> index = new HashMap<String, Asset>(assets.size() * 4 / 3 + 1);
+        long mappedBytes = 0;
+        long indexBytes = 0;
+        for (Asset asset : assets) {
+            index.put(asset.path, asset);
+            mappedBytes += asset.entry != null ? asset.length : 0;
+            indexBytes += ENTRY_OVERHEAD + 2L * (asset.path.length() + asset.file.getPath().length());
+        }
+        Snapshot next = new Snapshot(Map.copyOf(index), mappedBytes, indexBytes,
+                TimeUnit.NANOSECONDS.toMillis(scanned - start), TimeUnit.NANOSECONDS.toMillis(preloaded - scanned), skipped[0]);
+        if (manifest != null) {
+            writeManifest(next, manifest);
+        }
+        if (snapshot != null) {
+            reloads.increment();
+        }
+        snapshot = next;
+    }
+
+    // Sammelt alle Dateien unterhalb von root, die eingeblendet werden koennen (bekannter Content-Type, < 2 GiB)
+    private static List<Asset> scan(Path root, int[] skipped) throws IOException {
+        List<Asset> assets = new ArrayList<Asset>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (attrs.size() > MAX_MAPPED_SIZE) {
+                    skipped[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+                File file = path.toFile();
+                String contentType = HTTPStaticFileHandler.determineContentType(file);
+                assets.add(new Asset(HTTPContentCache.toRequestPath(root, path), file, attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), contentType));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        assets.sort(Comparator.comparing(asset -> asset.path));
+        return assets;
+    }
+
+    /*
+     * Schreibt das Manifest: je Datei Anfragepfad, Groesse, Aenderungszeit, ETag (bzw. "-", wenn noch
+     * nicht eingeblendet) und "mapped"/"lazy"; die Kopfzeilen enthalten die Kennzahlen des Ladevorgangs.
+     * Wird erst in eine temporaere Datei geschrieben und dann umbenannt.
+     */
+    private static void writeManifest(Snapshot snapshot, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+            out.println("# " + describe(snapshot));
+            out.println("# path\tsize\tlastModified\tetag\tstate");
+            snapshot.assets.values().stream().sorted(Comparator.comparing(asset -> asset.path)).forEach(asset -> {
+                HTTPContentCache.Entry entry = asset.entry;
+                out.println(asset.path + "\t" + asset.length + "\t" + asset.lastModified + "\t"
+                        + (entry != null ? entry.getETag() : "-") + "\t" + (entry != null ? "mapped" : "lazy"));
+            });
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Startet einen Hintergrund-Thread, der rootPath beobachtet und den Index nach Aenderungen neu laedt.
+     * Mehrere Ereignisse kurz hintereinander fuehren zu einem einzigen Neuladen.
+     */
+    private void watch() throws IOException {
+        WatchService watchService = root.getFileSystem().newWatchService();
+        HTTPContentCache.registerRecursive(watchService, root);
+        ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HTTP Asset Store Reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread watcher = new Thread(() -> {
+            ScheduledFuture<?> pending = null;
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != OVERFLOW) {
+                            Path changed = dir.resolve((Path) event.context());
+                            if (Files.isDirectory(changed)) {
+                                HTTPContentCache.registerRecursive(watchService, changed);
+                            }
+                        }
+                    }
+                    if (pending != null) {
+                        pending.cancel(false);
+                    }
+                    pending = reloader.schedule(() -> {
+                        try {
+                            reload();
+                            log.info("Asset store reloaded: " + this);
+                        } catch (IOException e) {
+                            log.error("Asset store reload failed, keeping previous index", e);
+                        }
+                    }, RELOAD_DELAY, TimeUnit.MILLISECONDS);
+                    if (!key.reset() && dir.equals(root)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                log.error("Asset store watcher stopped", e);
+            } finally {
+                reloader.shutdown();
+            }
+        }, "HTTP Asset Store Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public int getFileCount() {
+        return snapshot.assets.size();
+    }
+
+    // Summe der beim Laden eingeblendeten Dateigroessen (virtueller Speicher, nicht Heap)
+    public long getMappedBytes() {
+        return snapshot.mappedBytes;
+    }
+
+    // Geschaetzter Heap-Bedarf des Index
+    public long getIndexBytes() {
+        return snapshot.indexBytes;
+    }
+
+    // Dauer des letzten Ladevorgangs in ms (Einlesen + Vorladen)
+    public long getLoadMillis() {
+        return snapshot.scanMillis + snapshot.preloadMillis;
+    }
+
+    // Dauer der ersten Anfrage an den aktuellen Index in ns (-1 = noch keine)
+    public long getFirstRequestNanos() {
+        return snapshot.firstRequestNanos;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getColdLoads() {
+        return coldLoads.sum();
+    }
+
+    public long getColdLoadNanos() {
+        return coldLoadNanos.sum();
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    private static String describe(Snapshot snapshot) {
+        long first = snapshot.firstRequestNanos;
+        return "files=" + snapshot.assets.size()
+                + ", skipped=" + snapshot.skipped
+                + ", mappedBytes=" + snapshot.mappedBytes
+                + ", indexBytes~" + snapshot.indexBytes
+                + ", scan=" + snapshot.scanMillis + "ms"
+                + ", preload=" + snapshot.preloadMillis + "ms"
+                + ", firstRequest=" + (first < 0 ? "-" : TimeUnit.NANOSECONDS.toMicros(first) + "us");
+    }
+
+    @Override
+    public String toString() {
+        long cold = getColdLoads();
+        return "HTTPAssetStore[" + describe(snapshot)
+                + ", hits=" + getHits()
+                + ", misses=" + getMisses()
+                + ", coldLoads=" + cold + (cold == 0 ? "" : " (avg " + TimeUnit.NANOSECONDS.toMicros(getColdLoadNanos() / cold) + "us)")
+                + ", reloads=" + getReloads() + "]";
+    }
+}
@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * HTTPClock.java
+ *
+ * Version 1.0
+ * Zweck: Sekundentakt fuer alles, was sich nur einmal pro Sekunde aendert: den Date-Header
+ *        (IMF-fixdate, RFC 7231) und die Bodies der Routen /time und /date. Ein Hintergrund-Thread
+ *        formatiert sie zu Beginn jeder Sekunde einmal vor; Anfragen lesen nur noch die fertigen
+ *        Strings bzw. Bytes, statt je Antwort die Uhr abzufragen und zu formatieren.
+ */
+final class HTTPClock {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofLocalizedTime(FormatStyle.MEDIUM);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM);
+
+    /* Unveraenderlicher Stand einer Sekunde; wird als Ganzes ersetzt, damit Header und Bodies zusammenpassen */
+    static final class Tick {
+        final String dateHeader;
+        /* Vollstaendige Headerzeile "Date: ...\r\n" fuer den HTTPResponseEncoder */
+        final byte[] dateHeaderLine;
+        private final ByteBuffer timeBody;
+        private final ByteBuffer dateBody;
+
+        /* Header und Bodies stammen aus demselben Zeitpunkt, auch wenn der Takt kurz vor einem Sekundenwechsel laeuft */
+        private Tick(long millis) {
+            LocalDateTime now = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            this.dateHeader = HTTPValidators.httpDate(millis);
+            this.dateHeaderLine = ("Date: " + dateHeader + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.timeBody = encode(now.format(TIME_FORMAT));
+            this.dateBody = encode(now.format(DATE_FORMAT));
+        }
+
+        private static ByteBuffer encode(String body) {
+            return ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+    }
+
+    private static volatile Tick current = new Tick(System.currentTimeMillis());
+
+    static {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HTTP Clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        /* Auf den Sekundenwechsel ausrichten, damit /time nicht bis zu einer Sekunde nachgeht */
+        long delay = 1000 - System.currentTimeMillis() % 1000;
+        timer.scheduleAtFixedRate(HTTPClock::tick, delay, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private HTTPClock() {
+    }
+
+    private static void tick() {
+        current = new Tick(System.currentTimeMillis());
+    }
+
+    static Tick current() {
+        return current;
+    }
+
+    // Wert des Date-Headers der aktuellen Sekunde, z.B. "Sun, 06 Nov 1994 08:49:37 GMT"
+    static String dateHeader() {
+        return current.dateHeader;
+    }
+
+    // Body fuer /time; eigene Sicht je Antwort, die Bytes selbst werden geteilt
+    static ByteBuffer timeBody() {
+        return current.timeBody.duplicate();
+    }
+
+    // Body fuer /date
+    static ByteBuffer dateBody() {
+        return current.dateBody.duplicate();
+    }
+}
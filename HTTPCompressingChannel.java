@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * HTTPCompressingChannel.java
+ *
+ * Version 1.0
+ * Zweck: Kanal, der alle geschriebenen Bytes mit einem Deflater komprimiert (Content-Coding
+ *        "gzip" oder "deflate") und blockweise an den Zielkanal weitergibt. Es wird nie der
+ *        ganze Body gepuffert, sondern nur ein Ausgabepuffer fester Groesse.
+ */
+class HTTPCompressingChannel implements WritableByteChannel {
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    /* Minimaler gzip-Kopf (RFC 1952): Magic, Methode Deflate, keine Flags, keine Zeit, OS unbekannt */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final WritableByteChannel target;
+    private final boolean gzip;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    private boolean headerWritten = false;
+    private boolean open = true;
+
+    /* Konstruktor mit Parametern: Zielkanal, Content-Coding ("gzip" oder "deflate"), Kompressionsstufe */
+    public HTTPCompressingChannel(WritableByteChannel target, String encoding, int level) {
+        this.target = target;
+        this.gzip = HTTPCompression.GZIP.equals(encoding);
+        /* gzip bringt eigenen Kopf und CRC mit, "deflate" ist das zlib-Format (RFC 1950) */
+        this.deflater = new Deflater(level, gzip);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new IOException("Channel closed");
+        }
+        writeHeader();
+        int count = src.remaining();
+        if (gzip) {
+            crc.update(src.duplicate());
+        }
+        deflater.setInput(src);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+        /* Der Deflater behaelt sonst eine Referenz auf src, das der Aufrufer wiederverwenden darf */
+        deflater.setInput(NO_INPUT);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    // Schreibt die restlichen komprimierten Daten (und bei gzip den Trailer); schliesst den Zielkanal nicht
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        try {
+            writeHeader();
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            if (gzip) {
+                writeTrailer();
+            }
+            flushOutput();
+        } finally {
+            open = false;
+            deflater.end();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (gzip && !headerWritten) {
+            output.put(GZIP_HEADER);
+        }
+        headerWritten = true;
+    }
+
+    private void deflate() throws IOException {
+        deflater.deflate(output, Deflater.NO_FLUSH);
+        if (!output.hasRemaining()) {
+            flushOutput();
+        }
+    }
+
+    // gzip-Trailer: CRC32 und Laenge der unkomprimierten Daten, jeweils little-endian
+    private void writeTrailer() throws IOException {
+        if (output.remaining() < 8) {
+            flushOutput();
+        }
+        putIntLE((int) crc.getValue());
+        putIntLE((int) deflater.getBytesRead());
+    }
+
+    private void putIntLE(int value) {
+        output.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16)).put((byte) (value >> 24));
+    }
+
+    private void flushOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            target.write(output);
+        }
+        output.clear();
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * HTTPCompression.java
+ *
+ * Version 1.0
+ * Zweck: Aushandlung des Content-Codings ueber Accept-Encoding (gzip, deflate) und Erzeugung
+ *        komprimierter Varianten. Varianten statischer Dateien werden im HTTPContentCache unter
+ *        Pfad + Coding + Aenderungszeit abgelegt; liegt neben einer Datei eine vorkomprimierte
+ *        Datei "<name>.gz", wird diese statt einer eigenen Komprimierung verwendet. Dateien, die
+ *        nicht in den Cache passen, werden beim Senden blockweise komprimiert (CompressedBody).
+ */
+class HTTPCompression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private HTTPCompression() {
+    }
+
+    /*
+     * Body, der einen anderen StreamingBody (z.B. eine Datei) blockweise liest und komprimiert,
+     * waehrend er gesendet wird. Im Speicher liegen nur ein Lesepuffer und die noch nicht abgeholte
+     * komprimierte Ausgabe eines Blocks.
+     */
+    static class CompressedBody implements HTTPResponse.StreamingBody {
+        private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+        private final HTTPResponse.StreamingBody source;
+        private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+        private final HTTPCompressingChannel compressor;
+        /* Komprimierte, noch nicht abgeholte Bytes (Lesemodus) */
+        private ByteBuffer pending = ByteBuffer.allocate(INPUT_BUFFER_SIZE).flip();
+        private boolean finished = false;
+
+        CompressedBody(HTTPResponse.StreamingBody source, String encoding, int level) {
+            this.source = source;
+            this.compressor = new HTTPCompressingChannel(new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer src) {
+                    int count = src.remaining();
+                    pending.compact();
+                    if (pending.remaining() < count) {
+                        ByteBuffer larger = ByteBuffer.allocate(pending.position() + count);
+                        pending.flip();
+                        larger.put(pending);
+                        pending = larger;
+                    }
+                    pending.put(src).flip();
+                    return count;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            }, encoding, level);
+        }
+
+        // Komprimiert eine Datei blockweise
+        static CompressedBody ofFile(File file, String encoding, int level) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return new CompressedBody(new HTTPResponse.StreamingBody() {
+                @Override
+                public int read(ByteBuffer buffer) throws IOException {
+                    return channel.read(buffer);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            }, encoding, level);
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            while (!pending.hasRemaining()) {
+                if (finished) {
+                    return -1;
+                }
+                input.clear();
+                if (source.read(input) < 0) {
+                    compressor.close();
+                    finished = true;
+                } else {
+                    input.flip();
+                    compressor.write(input);
+                }
+            }
+            int count = Math.min(pending.remaining(), buffer.remaining());
+            ByteBuffer slice = pending.slice(pending.position(), count);
+            buffer.put(slice);
+            pending.position(pending.position() + count);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            compressor.close();
+            source.close();
+        }
+    }
+
+    /*
+     * Waehlt das Coding mit dem hoechsten q-Wert aus Accept-Encoding (bei Gleichstand gzip);
+     * null, wenn der Client keines der beiden akzeptiert und die Antwort unkomprimiert bleibt.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] params = element.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP:
+                case "x-gzip":
+                    gzip = q;
+                    break;
+                case DEFLATE:
+                    deflate = q;
+                    break;
+                case "*":
+                    any = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        /* "*" gilt fuer alle nicht ausdruecklich genannten Codings */
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    // Bereits komprimierte Formate (JPEG, GIF, PDF, ...) werden nicht erneut komprimiert
+    static boolean isCompressible(String contentType) {
+        return contentType != null && (contentType.startsWith("text/")
+                || contentType.contains("json") || contentType.contains("xml") || contentType.contains("javascript"));
+    }
+
+    // Komprimiert einen Inhalt vollstaendig (fuer Cache-Varianten und kleine generierte Bodies)
+    static ByteBuffer compress(ByteBuffer content, String encoding, int level) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, content.remaining() / 3));
+        try (HTTPCompressingChannel channel = new HTTPCompressingChannel(Channels.newChannel(compressed), encoding, level)) {
+            channel.write(content.duplicate());
+        }
+        return ByteBuffer.wrap(compressed.toByteArray());
+    }
+
+    /*
+     * Liefert die komprimierte Variante eines Cache-Eintrags (aus dem Cache, aus einer vorkomprimierten
+     * .gz-Datei oder frisch komprimiert) oder null, wenn keine Variante erzeugt werden kann.
+     */
+    static HTTPContentCache.Entry variant(HTTPServer server, HTTPContentCache.Entry identity, String encoding) {
+        HTTPContentCache cache = server.contentCache;
+        if (cache == null) {
+            /* Ohne Cache (z.B. bei Eintraegen des HTTPAssetStore) keine komprimierte Variante */
+            return null;
+        }
+        String key = HTTPContentCache.keyOf(identity.getFile()) + "\u0000" + encoding + "\u0000" + identity.getLastModified();
+        HTTPContentCache.Entry variant = cache.lookup(key);
+        if (variant != null) {
+            return variant;
+        }
+        long generation = cache.generation();
+        try {
+            if (GZIP.equals(encoding)) {
+                File precompressed = new File(identity.getFile().getPath() + ".gz");
+                if (precompressed.isFile() && precompressed.lastModified() >= identity.getLastModified()) {
+                    variant = cache.load(key, precompressed, identity.getContentType());
+                    if (variant != null) {
+                        return variant;
+                    }
+                }
+            }
+            ByteBuffer compressed = compress(identity.content(), encoding, server.compressionLevel);
+            return cache.put(key, identity.getFile(), compressed, identity.getContentType(), identity.getLastModified(), generation);
+        } catch (IOException e) {
+            server.log.error("Failed to compress " + identity.getFile(), e);
+            return null;
+        }
+    }
+
+    /*
+     * Komprimiert einen generierten Body (String oder StreamingBody, z.B. ein Verzeichnislisting),
+     * wenn der Client es akzeptiert und der Body gross genug ist. Setzt Content-Encoding, Vary und
+     * bei Strings Content-Length. Der Body-Typ aendert sich dabei (String -> ByteBuffer), daher
+     * HTTPResponse<Object>; fuer typisierte StreamingBody-Antworten gibt es compressStreamingBody.
+     */
+    static void compressBody(HTTPServer server, HTTPRequest<?> request, HTTPResponse<Object> response) {
+        if (response.Body() instanceof HTTPResponse.StreamingBody) {
+            String encoding = streamingEncoding(server, request, response);
+            if (encoding != null) {
+                response.setBody(new CompressedBody((HTTPResponse.StreamingBody) response.Body(), encoding, server.compressionLevel));
+            }
+            return;
+        }
+        if (!server.compressionEnabled || !(response.Body() instanceof String) || !isCompressible(response.getHeader("Content-Type"))) {
+            return;
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        String body = (String) response.Body();
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null || body.length() < server.compressionMinSize) {
+            return;
+        }
+        try {
+            ByteBuffer compressed = compress(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)), encoding, server.compressionLevel);
+            response.setBody(compressed);
+            response.setHeader("Content-Encoding", encoding);
+            response.setHeader("Content-Length", String.valueOf(compressed.remaining()));
+        } catch (IOException e) {
+            server.log.error("Failed to compress response", e);
+        }
+    }
+
+    // Wie compressBody, aber fuer einen StreamingBody: wird beim Senden blockweise komprimiert (Laenge unbekannt)
+    static void compressStreamingBody(HTTPServer server, HTTPRequest<?> request, HTTPResponse<HTTPResponse.StreamingBody> response) {
+        String encoding = streamingEncoding(server, request, response);
+        if (encoding != null) {
+            response.setBody(new CompressedBody(response.Body(), encoding, server.compressionLevel));
+        }
+    }
+
+    // Setzt Vary und ggf. Content-Encoding fuer einen StreamingBody; liefert die Kodierung oder null
+    private static String streamingEncoding(HTTPServer server, HTTPRequest<?> request, HTTPResponse<?> response) {
+        if (!server.compressionEnabled || !isCompressible(response.getHeader("Content-Type"))) {
+            return null;
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding != null) {
+            response.setHeader("Content-Encoding", encoding);
+        }
+        return encoding;
+    }
+}
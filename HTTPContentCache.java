@@ -0,0 +1,301 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/*
+ * HTTPContentCache.java
+ *
+ * Version 1.0
+ * Zweck: Zwischenspeicher fuer statische Dateien. Haelt den Dateiinhalt (wahlweise ausserhalb des
+ *        Heaps in direkten ByteBuffern) zusammen mit den vorberechneten Headern Content-Type und
+ *        Content-Length. Die Gesamtgroesse ist durch ein Byte-Budget begrenzt, verdraengt wird der
+ *        am laengsten nicht genutzte Eintrag (LRU). Veraenderte Dateien werden ueber die
+ *        Aenderungszeit oder einen WatchService auf dem Wurzelverzeichnis erkannt. Schluessel ist
+ *        der normalisierte Dateipfad (keyOf), damit jede Schreibweise einer Anfrage ("//index.html",
+ *        "/Bilder/../index.html") denselben Eintrag trifft und der WatchService ihn verwerfen kann.
+ */
+public class HTTPContentCache {
+    /* Ein zwischengespeicherter Dateiinhalt */
+    public static class Entry {
+        private final File file;
+        private final ByteBuffer content;
+        private final String contentType;
+        private final String contentLength;
+        private final long lastModified;
+        /* Validatoren fuer bedingte Anfragen, einmalig beim Laden berechnet */
+        private final String etag;
+        private final String lastModifiedHeader;
+
+        Entry(File file, ByteBuffer content, String contentType, long lastModified) {
+            this.file = file;
+            this.content = content;
+            this.contentType = contentType;
+            this.contentLength = String.valueOf(content.remaining());
+            this.lastModified = lastModified;
+            this.etag = HTTPValidators.strongETag(content);
+            this.lastModifiedHeader = HTTPValidators.httpDate(lastModified);
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // Liefert eine eigene Sicht auf den Inhalt, damit parallele Sendevorgaenge sich nicht stoeren
+        public ByteBuffer content() {
+            return content.asReadOnlyBuffer();
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getContentLength() {
+            return contentLength;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModifiedHeader() {
+            return lastModifiedHeader;
+        }
+
+        public int size() {
+            return content.capacity();
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean direct;
+
+    /* LRU-Reihenfolge: LinkedHashMap in Zugriffsreihenfolge, geschuetzt durch den Monitor des Caches */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long currentBytes = 0;
+    /* Wird bei jedem Verwerfen erhoeht; ein Ladevorgang, der davor begonnen hat, nimmt nichts mehr auf */
+    private long generation = 0;
+
+    /* Solange der WatchService laeuft, entfaellt die Pruefung der Aenderungszeit bei jedem Treffer */
+    private volatile boolean watching = false;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /* Konstruktor mit Parametern: Byte-Budget, maximale Groesse einer Datei, Inhalt ausserhalb des Heaps */
+    public HTTPContentCache(long maxBytes, long maxEntryBytes, boolean direct) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+        this.direct = direct;
+    }
+
+    // Schluessel einer Datei: absoluter, normalisierter Pfad (wie im HTTPDirectoryIndex)
+    public static String keyOf(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    // Liefert den gueltigen Eintrag zum Schluessel (keyOf) oder null, wenn er fehlt oder veraltet ist
+    public Entry lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && (watching || entry.file.lastModified() == entry.lastModified)) {
+            hits.increment();
+            return entry;
+        }
+        if (entry != null) {
+            invalidate(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Liest die Datei ein und nimmt sie auf; null, wenn sie zu gross fuer den Cache ist
+    public Entry load(String key, File file, String contentType) throws IOException {
+        long generation = generation();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (length > maxEntryBytes || length > maxBytes) {
+            return null;
+        }
+
+        ByteBuffer content = direct ? ByteBuffer.allocateDirect((int) length) : ByteBuffer.allocate((int) length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0) {
+                    break;
+                }
+            }
+        }
+        content.flip();
+
+        return put(key, file, content, contentType, lastModified, generation);
+    }
+
+    // Aktueller Stand der Invalidierungen; vor dem Lesen einer Datei abfragen und an put uebergeben
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /*
+     * Nimmt einen bereits vorliegenden Inhalt unter key auf, z.B. eine komprimierte Variante;
+     * file und lastModified dienen wie bei load der Erkennung veralteter Eintraege. Wurde seit
+     * generation etwas verworfen, koennte der Inhalt veraltet sein: er wird dann nur zurueckgegeben,
+     * aber nicht aufgenommen.
+     */
+    public Entry put(String key, File file, ByteBuffer content, String contentType, long lastModified, long generation) {
+        Entry entry = new Entry(file, content, contentType, lastModified);
+        if (entry.size() > maxEntryBytes || entry.size() > maxBytes) {
+            return entry;
+        }
+        synchronized (this) {
+            if (generation != this.generation) {
+                return entry;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                currentBytes -= previous.size();
+            }
+            currentBytes += entry.size();
+            evict();
+        }
+        return entry;
+    }
+
+    // Verdraengt die am laengsten nicht genutzten Eintraege, bis das Budget eingehalten ist
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= it.next().size();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        generation++;
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            currentBytes -= entry.size();
+            invalidations.increment();
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations.add(entries.size());
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /*
+     * Startet einen Hintergrund-Thread, der alle Verzeichnisse unterhalb von root beobachtet und
+     * Eintraege bei Aenderungen sofort verwirft. Fehler meldet er ueber log.
+     */
+    public void watch(Path directory, HTTPLogger log) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        WatchService watchService = root.getFileSystem().newWatchService();
+        registerRecursive(watchService, root);
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            clear();
+                            continue;
+                        }
+                        Path changed = dir.resolve((Path) event.context());
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                            registerRecursive(watchService, changed);
+                        }
+                        invalidate(changed.normalize().toString());
+                    }
+                    if (!key.reset() && dir.equals(root)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                log.error("Content cache watcher stopped", e);
+            } finally {
+                watching = false;
+            }
+        }, "HTTP Content Cache Watcher");
+        watcher.setDaemon(true);
+        watching = true;
+        watcher.start();
+    }
+
+    static void registerRecursive(WatchService watchService, Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Wandelt einen Dateipfad unterhalb von root in den zugehoerigen Anfragepfad um
+    static String toRequestPath(Path root, Path file) {
+        return "/" + root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        long lookups = getHits() + getMisses();
+        return "HTTPContentCache[entries=" + getEntryCount()
+                + ", bytes=" + getCurrentBytes() + "/" + maxBytes
+                + ", hits=" + getHits()
+                + ", misses=" + getMisses()
+                + ", hitRate=" + (lookups == 0 ? 0 : getHits() * 100 / lookups) + "%"
+                + ", evictions=" + getEvictions()
+                + ", invalidations=" + getInvalidations() + "]";
+    }
+}
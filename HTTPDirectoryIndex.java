@@ -0,0 +1,468 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/*
+ * HTTPDirectoryIndex.java
+ *
+ * Version 1.0
+ * Zweck: Zwischenspeicher fuer Verzeichnislisten. Ein Verzeichnis wird nur beim ersten Zugriff bzw.
+ *        nach einer Aenderung gelesen (ein stat je Eintrag), nach Namen sortiert und mit Groesse und
+ *        Aenderungszeit abgelegt; die HTML-Zeile und das JSON-Objekt jedes Eintrags werden dabei
+ *        einmalig vorcodiert. Eine Anfrage kopiert beim Senden nur noch die Bytes der angeforderten
+ *        Seite (ListingBody), statt die ganze Liste in einem String aufzubauen. Veraenderte
+ *        Verzeichnisse werden ueber einen WatchService oder ihre Aenderungszeit (und periodisch die
+ *        der Eintraege) erkannt.
+ */
+class HTTPDirectoryIndex {
+    /* Sortierung einer Liste; Verzeichnisse stehen bei NAME vor Dateien */
+    enum Sort {
+        NAME, SIZE, MODIFIED;
+
+        static Sort parse(String value) {
+            if (value == null) {
+                return NAME;
+            }
+            switch (value.toLowerCase()) {
+                case "name":
+                    return NAME;
+                case "size":
+                    return SIZE;
+                case "modified":
+                case "mtime":
+                    return MODIFIED;
+                default:
+                    throw new IllegalArgumentException("Unknown sort order: " + value);
+            }
+        }
+    }
+
+    /* Ein Verzeichniseintrag samt vorcodierter Darstellung */
+    static final class Entry {
+        final String name;
+        final boolean directory;
+        final long size;
+        final long lastModified;
+        final byte[] htmlRow;
+        final byte[] json;
+
+        Entry(String name, boolean directory, long size, long lastModified) {
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+
+            String link = encodeSegment(name) + (directory ? "/" : "");
+            String html = "<tr><td><a href=\"" + link + "\">" + escapeHtml(name) + (directory ? "/" : "") + "</a></td>"
+                    + "<td>" + (directory ? "-" : String.valueOf(size)) + "</td>"
+                    + "<td>" + HTTPValidators.httpDate(lastModified) + "</td></tr>\n";
+            this.htmlRow = html.getBytes(StandardCharsets.UTF_8);
+
+            String object = "{\"name\":\"" + escapeJson(name) + "\",\"type\":\"" + (directory ? "directory" : "file") + "\""
+                    + (directory ? "" : ",\"size\":" + size)
+                    + ",\"lastModified\":\"" + Instant.ofEpochMilli(lastModified) + "\"}";
+            this.json = object.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final Comparator<Entry> BY_NAME = Comparator.<Entry, Boolean>comparing(e -> !e.directory)
+            .thenComparing(e -> e.name, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(e -> e.name);
+    private static final Comparator<Entry> BY_SIZE = Comparator.<Entry>comparingLong(e -> e.size).thenComparing(BY_NAME);
+    private static final Comparator<Entry> BY_MODIFIED = Comparator.<Entry>comparingLong(e -> e.lastModified).thenComparing(BY_NAME);
+
+    /* Gelesener Inhalt eines Verzeichnisses; andere Sortierungen werden bei Bedarf einmalig erzeugt */
+    static final class Listing {
+        private final long lastModified;
+        private final Entry[] byName;
+        /* Zeitpunkt (ms) der letzten Pruefung der Eintraege ohne WatchService */
+        private volatile long validated = System.currentTimeMillis();
+        private volatile Entry[] bySize;
+        private volatile Entry[] byModified;
+
+        private Listing(long lastModified, Entry[] byName) {
+            this.lastModified = lastModified;
+            this.byName = byName;
+        }
+
+        int size() {
+            return byName.length;
+        }
+
+        // true, wenn Groesse und Aenderungszeit aller Dateien noch stimmen (ein stat je Eintrag)
+        private boolean entriesUnchanged(File directory) {
+            for (Entry entry : byName) {
+                if (entry.directory) {
+                    continue;
+                }
+                File file = new File(directory, entry.name);
+                if (file.length() != entry.size || file.lastModified() != entry.lastModified) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Entry[] sorted(Sort sort) {
+            switch (sort) {
+                case SIZE:
+                    if (bySize == null) {
+                        bySize = sortedCopy(BY_SIZE);
+                    }
+                    return bySize;
+                case MODIFIED:
+                    if (byModified == null) {
+                        byModified = sortedCopy(BY_MODIFIED);
+                    }
+                    return byModified;
+                default:
+                    return byName;
+            }
+        }
+
+        private Entry[] sortedCopy(Comparator<Entry> comparator) {
+            Entry[] copy = byName.clone();
+            Arrays.sort(copy, comparator);
+            return copy;
+        }
+
+        /*
+         * Body fuer eine Seite der Liste: offset Eintraege ueberspringen, hoechstens limit senden.
+         * path ist der Anfragepfad des Verzeichnisses (fuer Titel und Basis der relativen Links).
+         */
+        ListingBody page(String path, Sort sort, boolean descending, int offset, int limit, boolean json) {
+            String base = path.endsWith("/") ? path : path + "/";
+            int start = Math.min(offset, byName.length);
+            int end = (int) Math.min((long) start + limit, byName.length);
+            String header;
+            String footer;
+            if (json) {
+                header = "{\"path\":\"" + escapeJson(base) + "\",\"total\":" + byName.length
+                        + ",\"offset\":" + start + ",\"limit\":" + limit + ",\"entries\":[";
+                footer = "]}";
+            } else {
+                String title = escapeHtml(base);
+                header = "<html><head><title>Directory Listing</title><base href=\"" + escapeHtml(urlEncodePath(base)) + "\"></head><body>"
+                        + "<h1>Directory Listing " + title + "</h1>"
+                        + "<table><tr><th>Name</th><th>Size</th><th>Last Modified</th></tr>\n";
+                footer = "</table>" + pagination(sort, descending, start, end, limit) + "</body></html>";
+            }
+            return new ListingBody(sorted(sort), descending, start, end, json,
+                    header.getBytes(StandardCharsets.UTF_8), footer.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private String pagination(Sort sort, boolean descending, int start, int end, int limit) {
+            String query = "&limit=" + limit + "&sort=" + sort.name().toLowerCase() + (descending ? "&order=desc" : "");
+            StringBuilder html = new StringBuilder("<p>");
+            html.append(byName.length == 0 ? 0 : start + 1).append('-').append(end).append(" of ").append(byName.length);
+            if (start > 0) {
+                html.append(" <a href=\"?offset=").append(Math.max(0, start - limit)).append(query.replace("&", "&amp;")).append("\">previous</a>");
+            }
+            if (end < byName.length) {
+                html.append(" <a href=\"?offset=").append(end).append(query.replace("&", "&amp;")).append("\">next</a>");
+            }
+            return html.append("</p>").toString();
+        }
+    }
+
+    /*
+     * StreamingBody einer Listen-Seite: kopiert Kopf, die vorcodierten Eintraege und den Abschluss
+     * der Reihe nach in den Sendepuffer. Es entsteht kein Zwischenpuffer fuer die ganze Seite.
+     */
+    static final class ListingBody implements HTTPResponse.StreamingBody {
+        private static final byte[] JSON_SEPARATOR = {','};
+
+        private final Entry[] entries;
+        private final boolean descending;
+        private final int end;
+        private final boolean json;
+        private final byte[] footer;
+        private int next;
+        private boolean separatorDue = false;
+        private boolean footerQueued = false;
+        /* Aktuell zu kopierende Bytes und Position darin */
+        private byte[] current;
+        private int currentPosition;
+
+        private ListingBody(Entry[] entries, boolean descending, int start, int end, boolean json, byte[] header, byte[] footer) {
+            this.entries = entries;
+            this.descending = descending;
+            this.next = start;
+            this.end = end;
+            this.json = json;
+            this.footer = footer;
+            this.current = header;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            int start = buffer.position();
+            while (buffer.hasRemaining()) {
+                if (current == null || currentPosition == current.length) {
+                    if (!advance()) {
+                        break;
+                    }
+                }
+                int count = Math.min(buffer.remaining(), current.length - currentPosition);
+                buffer.put(current, currentPosition, count);
+                currentPosition += count;
+            }
+            int count = buffer.position() - start;
+            return count == 0 && current == null ? -1 : count;
+        }
+
+        // Naechstes Stueck: Eintrag (bei JSON davor ein Komma), dann der Abschluss; false am Ende
+        private boolean advance() {
+            currentPosition = 0;
+            if (next < end) {
+                if (separatorDue) {
+                    separatorDue = false;
+                    current = JSON_SEPARATOR;
+                    return true;
+                }
+                Entry entry = entries[descending ? entries.length - 1 - next : next];
+                next++;
+                current = json ? entry.json : entry.htmlRow;
+                separatorDue = json;
+                return true;
+            }
+            if (!footerQueued) {
+                footerQueued = true;
+                current = footer;
+                return true;
+            }
+            current = null;
+            return false;
+        }
+    }
+
+    /*
+     * Ohne WatchService aendert sich die Aenderungszeit des Verzeichnisses nur beim Anlegen, Loeschen
+     * oder Umbenennen von Eintraegen, nicht beim Ueberschreiben einer Datei. Groesse und Aenderungszeit
+     * der Eintraege werden daher hoechstens einmal in diesem Abstand geprueft; so lange kann eine Liste
+     * veraltete Werte zeigen.
+     */
+    static final long REVALIDATE_INTERVAL_MILLIS = 1000;
+
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<Path, Listing>();
+    private final int maxDirectories;
+    /* Solange der WatchService laeuft, entfaellt die Pruefung der Aenderungszeit bei jedem Treffer */
+    private volatile boolean watching = false;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /* Konstruktor mit Parameter: Anzahl zwischengespeicherter Verzeichnisse */
+    public HTTPDirectoryIndex(int maxDirectories) {
+        this.maxDirectories = maxDirectories;
+    }
+
+    // Liefert die (ggf. zwischengespeicherte) Liste eines Verzeichnisses
+    public Listing get(File directory) throws IOException {
+        Path key = directory.toPath().toAbsolutePath().normalize();
+        Listing listing = listings.get(key);
+        if (listing != null && (watching || isCurrent(listing, directory))) {
+            hits.increment();
+            return listing;
+        }
+        misses.increment();
+        listing = scan(directory);
+        if (listings.size() >= maxDirectories) {
+            /* Selten: mehr Verzeichnisse als erlaubt --> neu beginnen statt LRU-Buchfuehrung je Treffer */
+            listings.clear();
+        }
+        listings.put(key, listing);
+        return listing;
+    }
+
+    // Prueft eine Liste ohne WatchService: Aenderungszeit des Verzeichnisses, periodisch auch die Eintraege
+    private static boolean isCurrent(Listing listing, File directory) {
+        if (listing.lastModified != directory.lastModified()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - listing.validated < REVALIDATE_INTERVAL_MILLIS) {
+            return true;
+        }
+        if (!listing.entriesUnchanged(directory)) {
+            return false;
+        }
+        listing.validated = now;
+        return true;
+    }
+
+    // Liest ein Verzeichnis ohne Cache (ein stat je Eintrag) und sortiert es nach Namen
+    static Listing scan(File directory) throws IOException {
+        long lastModified = directory.lastModified();
+        List<Entry> entries = new ArrayList<Entry>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+            for (Path child : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    /* Waehrend des Lesens geloescht */
+                    continue;
+                }
+                entries.add(new Entry(child.getFileName().toString(), attributes.isDirectory(),
+                        attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        Entry[] byName = entries.toArray(new Entry[0]);
+        Arrays.sort(byName, BY_NAME);
+        return new Listing(lastModified, byName);
+    }
+
+    public void invalidate(Path directory) {
+        listings.remove(directory.toAbsolutePath().normalize());
+    }
+
+    /*
+     * Startet einen Hintergrund-Thread, der alle Verzeichnisse unterhalb von root beobachtet und
+     * die Liste eines Verzeichnisses verwirft, sobald darin etwas angelegt, geaendert oder geloescht wird.
+     * Fehler meldet er ueber log.
+     */
+    public void watch(Path root, HTTPLogger log) throws IOException {
+        WatchService watchService = root.getFileSystem().newWatchService();
+        HTTPContentCache.registerRecursive(watchService, root);
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            listings.clear();
+                            continue;
+                        }
+                        Path changed = dir.resolve((Path) event.context());
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                            HTTPContentCache.registerRecursive(watchService, changed);
+                        }
+                        invalidate(changed);
+                    }
+                    invalidate(dir);
+                    if (!key.reset() && dir.equals(root)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                log.error("Directory index watcher stopped", e);
+            } finally {
+                watching = false;
+            }
+        }, "HTTP Directory Index Watcher");
+        watcher.setDaemon(true);
+        watching = true;
+        watcher.start();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getDirectoryCount() {
+        return listings.size();
+    }
+
+    /*
+     * Codiert ein Pfadsegment nach RFC 3986: nur die nicht reservierten Zeichen bleiben stehen, alles
+     * andere (auch Leerzeichen und '+') wird als %XX der UTF-8-Bytes geschrieben. Der Parser decodiert
+     * den Pfad wieder, ohne '+' als Leerzeichen zu deuten.
+     */
+    static String encodeSegment(String segment) {
+        StringBuilder encoded = null;
+        byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean unreserved = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '-' || b == '.' || b == '_' || b == '~';
+            if (unreserved) {
+                if (encoded != null) {
+                    encoded.append((char) b);
+                }
+            } else {
+                if (encoded == null) {
+                    encoded = new StringBuilder(bytes.length + 16).append(segment, 0, i);
+                }
+                encoded.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+            }
+        }
+        return encoded != null ? encoded.toString() : segment;
+    }
+
+    // Codiert jedes Segment eines Pfades einzeln, die Schraegstriche bleiben erhalten
+    private static String urlEncodePath(String path) {
+        String[] segments = path.split("/", -1);
+        StringBuilder encoded = new StringBuilder(path.length() + 16);
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                encoded.append('/');
+            }
+            encoded.append(encodeSegment(segments[i]));
+        }
+        return encoded.toString();
+    }
+
+    static String escapeHtml(String s) {
+        StringBuilder escaped = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                case '\'':
+                    escaped.append("&#39;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String escapeJson(String s) {
+        StringBuilder escaped = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
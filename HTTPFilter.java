@@ -0,0 +1,14 @@
+import java.io.IOException;
+
+/*
+ * HTTPFilter.java
+ *
+ * Version 1.0
+ * Zweck: Zwischenschicht (Middleware) vor allen Routen des HTTPRouter. Ein Filter kann die Anfrage
+ *        selbst beantworten (z.B. 406 fuer unbekannte User-Agents) oder sie an next weitergeben
+ *        und die Antwort danach noch veraendern.
+ */
+@FunctionalInterface
+public interface HTTPFilter {
+    HTTPResponse<?> filter(HTTPRequest<?> request, HTTPHandler next) throws IOException;
+}
@@ -0,0 +1,13 @@
+import java.io.IOException;
+
+/*
+ * HTTPHandler.java
+ *
+ * Version 1.0
+ * Zweck: Erzeugt die Antwort auf eine Anfrage. Handler werden beim Serverstart im HTTPRouter
+ *        registriert (z.B. server.router.get("/time", handler)), ohne den Arbeitsthread zu aendern.
+ */
+@FunctionalInterface
+public interface HTTPHandler {
+    HTTPResponse<?> handle(HTTPRequest<?> request) throws IOException;
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * HTTPListenerShard.java
+ *
+ * Version 1.0
+ * Zweck: Ein Teil (Shard) der Verbindungsannahme mit eigenem Acceptor, eigener Zulassungswarteschlange
+ *        (HTTPAdmission) und eigenen Arbeitsthreads bzw. Reactors. Mit SO_REUSEPORT hat jeder Shard einen
+ *        eigenen Server-Socket auf demselben Port und der Kernel verteilt neue Verbindungen auf sie, sodass
+ *        mehrere accept()-Schleifen parallel laufen. Ohne SO_REUSEPORT nimmt nur Shard 0 an und verteilt
+ *        die Verbindungen reihum auf alle Shards.
+ */
+class HTTPListenerShard implements Runnable {
+    private final int id;
+    private final HTTPServer server;
+    private final HTTPAdmission admission;
+    private final LongAdder accepted = new LongAdder();
+
+    /* Eigener Server-Socket (null, wenn ein anderer Shard die Verbindungen zuteilt) und die damit belieferten Shards */
+    private volatile ServerSocketChannel channel;
+    private HTTPListenerShard[] targets;
+
+    /* Konstruktor mit Parametern: Nummer, Server, Laenge der Zulassungswarteschlange, Uebergabe zugelassener Verbindungen */
+    public HTTPListenerShard(int id, HTTPServer server, int pendingConnections, Consumer<SocketChannel> dispatcher) {
+        this.id = id;
+        this.server = server;
+        this.admission = new HTTPAdmission(server, "HTTP Admission " + id, pendingConnections, dispatcher);
+    }
+
+    // Ordnet dem Shard seinen Server-Socket zu; angenommene Verbindungen gehen reihum an targets
+    void listen(ServerSocketChannel channel, HTTPListenerShard[] targets) {
+        this.channel = channel;
+        this.targets = targets;
+    }
+
+    // Accept-Schleife; endet, wenn der Server-Socket geschlossen wird (HTTPServer.stop())
+    public void run() {
+        int next = 0;
+        try {
+            while (server.serviceRequested) {
+                server.log.debug("HTTP Server is waiting for connection - listening TCP port " + server.serverPort + " (shard " + id + ")");
+                /*
+                 * Blockiert auf Verbindungsanfrage warten --> nach Verbindungsaufbau sofort an die
+                 * Zulassung uebergeben, die bei Ueberlast mit 503 antwortet statt den Backlog volllaufen zu lassen
+                 */
+                SocketChannel connection = channel.accept();
+                targets[next].offer(connection);
+                next = (next + 1) % targets.length;
+            }
+        } catch (ClosedChannelException e) {
+            /* stop() hat den Server-Socket geschlossen */
+        } catch (IOException e) {
+            server.log.error("Acceptor of shard " + id + " stopped with error", e);
+        }
+    }
+
+    // Nimmt eine (ggf. von einem anderen Shard) angenommene Verbindung entgegen
+    void offer(SocketChannel connection) {
+        accepted.increment();
+        admission.offer(connection);
+    }
+
+    // Schliesst den Server-Socket; ein in accept() blockierter Acceptor kehrt sofort zurueck
+    void closeListener() {
+        ServerSocketChannel listener = channel;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                server.log.error("Failed to close server socket of shard " + id, e);
+            }
+        }
+    }
+
+    // Keine weiteren Verbindungen zulassen; noch wartende erhalten 503
+    void closeAdmission() {
+        admission.close();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getAdmitted() {
+        return admission.getAdmitted();
+    }
+
+    public long getRejected() {
+        return admission.getRejected();
+    }
+
+    public int getQueueLength() {
+        return admission.getQueueLength();
+    }
+}
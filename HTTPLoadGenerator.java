@@ -0,0 +1,586 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/*
+ * HTTPLoadGenerator.java
+ *
+ * Version 1.0
+ * Zweck: Lastgenerator fuer Regressions- und Dauertests ueber Loopback. Sendet eine gewichtete Mischung
+ *        von Anfragen (Dateien unter html/, /time, /date, ...) ueber virtuelle Threads, wahlweise mit
+ *        fester Rate (offene Schleife) oder mit einer festen Anzahl Clients, die ohne Pause senden
+ *        (geschlossene Schleife). In der offenen Schleife wird die Latenz ab dem geplanten Sendezeitpunkt
+ *        gemessen: staut sich der Server, zaehlt die Wartezeit mit, statt dass der Generator einfach
+ *        langsamer sendet und die schlechten Messungen auslaesst (coordinated omission).
+ *        Berichtet Durchsatz, Fehlerraten und Latenz-Perzentile; mit --max-error-rate bzw. --max-p99
+ *        endet er bei Ueberschreitung mit Exit-Code 1 (CI). Mit --embedded startet er selbst einen
+ *        Server auf einem freien Loopback-Port.
+ *
+ *        java -cp target/httpserver-1.0-SNAPSHOT.jar HTTPLoadGenerator --embedded NIO --rate 2000 --duration 30
+ *        java -cp target/httpserver-1.0-SNAPSHOT.jar HTTPLoadGenerator --port 80 --connections 64 --close
+ */
+public class HTTPLoadGenerator {
+    /* Kennung im User-Agent; HTTPServer.acceptedUserAgents laesst sie standardmaessig zu */
+    public static final String USER_AGENT_NAME = "HTTPLoadGenerator";
+    public static final String USER_AGENT = USER_AGENT_NAME + "/1.0";
+
+    /* Ziel (embeddedMode != null: eigener Server auf einem freien Port, host/port werden ignoriert) */
+    public String host = "127.0.0.1";
+    public int port = 80;
+    public HTTPServer.ServerMode embeddedMode = null;
+    public String rootPath = HTTPServer.STANDARD_ROOT_PATH;
+
+    /* Last: rate > 0 = offene Schleife mit rate Anfragen/s, sonst geschlossene Schleife mit connections Clients */
+    public int rate = 0;
+    public int connections = 16;
+    public int durationSeconds = 10;
+    public int warmupSeconds = 2;
+    public boolean keepAlive = true;
+    public int timeout = 5000;
+    /*
+     * Offene Schleife: hoechstens so viele geplante Anfragen warten auf eine freie Verbindung
+     * (0 = rate * timeout / 1000, laenger wartende liefen ohnehin in den Timeout); weitere zaehlen
+     * als verpasst (Fehler) statt unbegrenzt Speicher zu belegen
+     */
+    public int backlog = 0;
+
+    /* Gewichtete Anfrage-Mischung: "Pfad=Gewicht,..."; "html" steht fuer alle Dateien unter rootPath */
+    public String mix = "html=4,/time=3,/date=3";
+
+    /* Grenzwerte fuer CI (negativ = nicht pruefen) */
+    public double maxErrorRate = -1;
+    public double maxP99Millis = -1;
+
+    /*
+     * Ergebnis eines Laufs (nur die fuer die Messphase nach dem Aufwaermen geplanten Anfragen). Die Latenz
+     * umfasst auch fehlgeschlagene Anfragen, nicht aber verpasste (nie gesendete). Der Durchsatz bezieht
+     * sich auf die tatsaechlich verstrichene Zeit vom Beginn der Messphase bis zur letzten Antwort.
+     */
+    public static final class Report {
+        private final long requests;
+        private final long[] statusClasses;
+        private final long errors;
+        private final long timeouts;
+        private final long missed;
+        private final double seconds;
+        private final int targetRate;
+        private final HTTPServerMetrics.LatencyHistogram latency;
+
+        Report(long requests, long[] statusClasses, long errors, long timeouts, long missed, double seconds, int targetRate,
+               HTTPServerMetrics.LatencyHistogram latency) {
+            this.requests = requests;
+            this.statusClasses = statusClasses;
+            this.errors = errors;
+            this.timeouts = timeouts;
+            this.missed = missed;
+            this.seconds = seconds;
+            this.targetRate = targetRate;
+            this.latency = latency;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        // Anzahl Antworten mit Status 1xx..5xx (statusClass = 1..5)
+        public long getStatusCount(int statusClass) {
+            return statusClasses[statusClass];
+        }
+
+        // Fehler: Verbindungs- und Protokollfehler, Timeouts, verpasste Anfragen sowie Antworten mit 4xx/5xx
+        public long getErrors() {
+            return errors + timeouts + missed + statusClasses[4] + statusClasses[5];
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        // Offene Schleife: Anfragen, die wegen vollem Rueckstau (backlog) nie gesendet wurden
+        public long getMissed() {
+            return missed;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        // Beantwortete bzw. gesendete Anfragen je Sekunde (ohne verpasste)
+        public double getThroughput() {
+            return seconds > 0 ? (requests - missed) / seconds : 0;
+        }
+
+        public double getErrorRate() {
+            return requests > 0 ? (double) getErrors() / requests : 0;
+        }
+
+        public double getLatencyMillis(double quantile) {
+            return latency.valueAtQuantile(quantile) / 1000.0;
+        }
+
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "requests   %d (%.1f req/s over %.2f s%s)%n"
+                            + "status     1xx=%d 2xx=%d 3xx=%d 4xx=%d 5xx=%d%n"
+                            + "errors     %d (%.2f %%), timeouts %d, missed %d%n"
+                            + "latency ms p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                    requests, getThroughput(), seconds, targetRate > 0 ? ", target " + targetRate : "",
+                    statusClasses[1], statusClasses[2], statusClasses[3], statusClasses[4], statusClasses[5],
+                    getErrors(), getErrorRate() * 100, timeouts, missed,
+                    getLatencyMillis(0.5), getLatencyMillis(0.9), getLatencyMillis(0.99), getLatencyMillis(0.999), getLatencyMillis(1.0));
+        }
+    }
+
+    /* Eine Gruppe der Mischung: Gewicht und vorbereitete Anfragen (eine davon wird zufaellig gewaehlt) */
+    private static final class Group {
+        final int weight;
+        final byte[][] requests;
+
+        Group(int weight, byte[][] requests) {
+            this.weight = weight;
+            this.requests = requests;
+        }
+    }
+
+    /* Zaehler der Messphase */
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder[] statusClasses = new LongAdder[6];
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final HTTPServerMetrics.LatencyHistogram latency = new HTTPServerMetrics.LatencyHistogram();
+
+    private List<Group> groups;
+    private int totalWeight;
+    private volatile long measureFrom;
+
+    public HTTPLoadGenerator() {
+        for (int i = 0; i < statusClasses.length; i++) {
+            statusClasses[i] = new LongAdder();
+        }
+    }
+
+    // Fuehrt einen Lauf aus (ggf. mit eingebettetem Server) und liefert den Bericht
+    public Report run() throws IOException, InterruptedException {
+        HTTPServer server = null;
+        Thread serverThread = null;
+        if (embeddedMode != null) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            host = "127.0.0.1";
+            server = new HTTPServer(port, 10000, rootPath, embeddedMode);
+            /* Zugriffsprotokoll wuerde die Ausgabe fluten und selbst zur Last werden */
+            server.log.setAccessLogEnabled(false);
+            serverThread = new Thread(server::startServer, "HTTP Embedded Server");
+            serverThread.start();
+            awaitServer();
+        }
+
+        try {
+            groups = parseMix();
+            totalWeight = groups.stream().mapToInt(group -> group.weight).sum();
+            long start = System.nanoTime();
+            measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+            if (rate > 0) {
+                runOpenLoop(start, end);
+            } else {
+                runClosedLoop(end);
+            }
+            /* Gezaehlt werden auch Anfragen, deren Antwort erst nach end eintrifft: Bezugszeit ist daher bis zur letzten Antwort */
+            double seconds = (System.nanoTime() - measureFrom) / 1e9;
+            long[] classes = new long[statusClasses.length];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = statusClasses[i].sum();
+            }
+            return new Report(requests.sum(), classes, errors.sum(), timeouts.sum(), missed.sum(), seconds, rate, latency);
+        } finally {
+            if (server != null) {
+                server.stop(Duration.ofSeconds(5));
+                serverThread.join();
+                server.log.close();
+            }
+        }
+    }
+
+    /*
+     * Geschlossene Schleife: connections Clients senden jeweils die naechste Anfrage, sobald die Antwort da
+     * ist. Misst die Kapazitaet, verschweigt bei Stau aber die Wartezeit nicht gesendeter Anfragen.
+     */
+    private void runClosedLoop(long end) {
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                clients.execute(() -> {
+                    Connection connection = null;
+                    while (System.nanoTime() < end) {
+                        connection = exchange(connection, System.nanoTime());
+                    }
+                    close(connection);
+                });
+            }
+        }
+    }
+
+    /*
+     * Offene Schleife: Anfrage i ist fuer start + i/rate geplant und wird unabhaengig von frueheren Antworten
+     * gesendet. connections Sender mit je einer Verbindung arbeiten die geplanten Zeitpunkte der Reihe nach
+     * ab; die Wartezeit in der Warteschlange geht in die Latenz ein. Ist die Warteschlange (backlog) voll,
+     * zaehlt die Anfrage als verpasst.
+     */
+    private void runOpenLoop(long start, long end) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        int capacity = backlog > 0 ? backlog : (int) Math.max(connections, Math.min(Integer.MAX_VALUE, (long) rate * timeout / 1000));
+        BlockingQueue<Long> scheduled = new ArrayBlockingQueue<Long>(capacity);
+        AtomicBoolean scheduling = new AtomicBoolean(true);
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < connections; c++) {
+                senders.execute(() -> {
+                    Connection connection = null;
+                    try {
+                        while (true) {
+                            Long intended = scheduled.poll(10, TimeUnit.MILLISECONDS);
+                            if (intended != null) {
+                                connection = exchange(connection, intended);
+                            } else if (!scheduling.get()) {
+                                break;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    close(connection);
+                });
+            }
+            for (long i = 0; ; i++) {
+                long intended = start + i * interval;
+                if (intended >= end) {
+                    break;
+                }
+                long delay;
+                while ((delay = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                if (!scheduled.offer(intended) && intended >= measureFrom) {
+                    requests.increment();
+                    missed.increment();
+                }
+            }
+            scheduling.set(false);
+        }
+    }
+
+    /*
+     * Sendet eine zufaellige Anfrage der Mischung ueber connection (null = neue Verbindung) und zaehlt das
+     * Ergebnis. Liefert die weiter nutzbare Verbindung oder null, wenn sie geschlossen wurde.
+     */
+    private Connection exchange(Connection connection, long intended) {
+        byte[] request = pickRequest();
+        try {
+            if (connection == null) {
+                connection = new Connection(host, port, timeout);
+            }
+            int status = connection.exchange(request);
+            record(intended, status);
+            if (!keepAlive || connection.closeRequested) {
+                close(connection);
+                return null;
+            }
+            return connection;
+        } catch (SocketTimeoutException e) {
+            recordFailure(intended, timeouts);
+        } catch (IOException e) {
+            recordFailure(intended, errors);
+        }
+        close(connection);
+        return null;
+    }
+
+    private void record(long intended, int status) {
+        if (intended < measureFrom) {
+            return;
+        }
+        requests.increment();
+        statusClasses[status >= 100 && status < 600 ? status / 100 : 0].increment();
+        latency.recordNanos(System.nanoTime() - intended);
+    }
+
+    /*
+     * Fehlgeschlagene Anfragen gehen mit ihrer Dauer bis zum Fehler in die Latenz ein: gerade Timeouts
+     * sind die langsamsten Anfragen und duerfen bei Ueberlast nicht aus p99 bzw. --max-p99 herausfallen
+     */
+    private void recordFailure(long intended, LongAdder counter) {
+        if (intended < measureFrom) {
+            return;
+        }
+        requests.increment();
+        counter.increment();
+        latency.recordNanos(System.nanoTime() - intended);
+    }
+
+    private byte[] pickRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(totalWeight);
+        for (Group group : groups) {
+            pick -= group.weight;
+            if (pick < 0) {
+                return group.requests[random.nextInt(group.requests.length)];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    // Zerlegt mix in Gruppen; "html" wird zu allen vom Server unterstuetzten Dateien unter rootPath
+    private List<Group> parseMix() throws IOException {
+        List<Group> result = new ArrayList<Group>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight <= 0) {
+                continue;
+            }
+            String name = parts[0].trim();
+            List<String> paths = name.equals("html") ? listFiles() : List.of(name);
+            if (paths.isEmpty()) {
+                throw new IllegalArgumentException("No files found for mix entry '" + entry + "' under " + rootPath);
+            }
+            byte[][] requests = new byte[paths.size()][];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = buildRequest(paths.get(i));
+            }
+            result.add(new Group(weight, requests));
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Empty request mix: " + mix);
+        }
+        return result;
+    }
+
+    private List<String> listFiles() throws IOException {
+        Path root = Paths.get(rootPath);
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> "/" + root.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .filter(path -> path.matches("[A-Za-z0-9._/-]+"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private byte[] buildRequest(String path) {
+        return ("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "User-Agent: " + USER_AGENT + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Wartet, bis der eingebettete Server Verbindungen annimmt
+    private void awaitServer() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 200);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.socket.close();
+            } catch (IOException e) {
+                /* Verbindung ist ohnehin verloren */
+            }
+        }
+    }
+
+    /* Eine Client-Verbindung (HTTP/1.1 ueber einen blockierenden Socket; virtuelle Threads machen das billig) */
+    private static final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean closeRequested;
+
+        Connection(String host, int port, int timeout) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        // Sendet eine Anfrage, liest die Antwort vollstaendig und liefert den Status
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+
+            String statusLine = readLine();
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+
+            long contentLength = -1;
+            boolean chunked = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    closeRequested = value.equalsIgnoreCase("close");
+                }
+            }
+
+            if (status == 204 || status == 304 || status < 200) {
+                return status;
+            }
+            if (chunked) {
+                skipChunked();
+            } else if (contentLength >= 0) {
+                in.skipNBytes(contentLength);
+            } else {
+                /* Ende des Rumpfs = Ende der Verbindung */
+                in.transferTo(OutputStream.nullOutputStream());
+                closeRequested = true;
+            }
+            return status;
+        }
+
+        private void skipChunked() throws IOException {
+            while (true) {
+                String sizeLine = readLine();
+                int extension = sizeLine.indexOf(';');
+                long size = Long.parseLong((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+                if (size == 0) {
+                    /* Trailer bis zur Leerzeile ueberspringen */
+                    while (!readLine().isEmpty()) {
+                    }
+                    return;
+                }
+                in.skipNBytes(size);
+                readLine();
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HTTPLoadGenerator generator = new HTTPLoadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--close")) {
+                generator.keepAlive = false;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--host" -> generator.host = value;
+                case "--port" -> generator.port = Integer.parseInt(value);
+                case "--embedded" -> generator.embeddedMode = HTTPServer.ServerMode.valueOf(value.toUpperCase());
+                case "--root" -> generator.rootPath = value;
+                case "--rate" -> generator.rate = Integer.parseInt(value);
+                case "--connections" -> generator.connections = Integer.parseInt(value);
+                case "--duration" -> generator.durationSeconds = Integer.parseInt(value);
+                case "--warmup" -> generator.warmupSeconds = Integer.parseInt(value);
+                case "--timeout" -> generator.timeout = Integer.parseInt(value);
+                case "--backlog" -> generator.backlog = Integer.parseInt(value);
+                case "--mix" -> generator.mix = value;
+                case "--max-error-rate" -> generator.maxErrorRate = Double.parseDouble(value);
+                case "--max-p99" -> generator.maxP99Millis = Double.parseDouble(value);
+                default -> usage("Unknown option " + option);
+            }
+        }
+
+        System.out.println(USER_AGENT + ": "
+                + (generator.rate > 0 ? "open loop at " + generator.rate + " req/s" : "closed loop")
+                + ", " + generator.connections + " connections, " + (generator.keepAlive ? "keep-alive" : "close")
+                + ", " + generator.durationSeconds + " s (+" + generator.warmupSeconds + " s warm-up)"
+                + ", mix " + generator.mix
+                + (generator.embeddedMode != null ? ", embedded " + generator.embeddedMode + " server" : ", target " + generator.host + ":" + generator.port));
+        Report report = generator.run();
+        System.out.println(report);
+
+        /* Grenzwerte fuer CI pruefen */
+        boolean failed = false;
+        if (generator.maxErrorRate >= 0 && report.getErrorRate() > generator.maxErrorRate) {
+            System.out.println("FAILED: error rate " + report.getErrorRate() + " exceeds " + generator.maxErrorRate);
+            failed = true;
+        }
+        if (generator.maxP99Millis >= 0 && report.getLatencyMillis(0.99) > generator.maxP99Millis) {
+            System.out.println("FAILED: p99 latency " + report.getLatencyMillis(0.99) + " ms exceeds " + generator.maxP99Millis + " ms");
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: HTTPLoadGenerator [--embedded MODE | --host HOST --port PORT] [--root DIR]"
+                + " [--rate REQ_PER_S] [--connections N] [--duration S] [--warmup S] [--timeout MS] [--backlog N] [--close]"
+                + " [--mix PATH=WEIGHT,...] [--max-error-rate FRACTION] [--max-p99 MS]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * HTTPLogger.java
+ *
+ * Version 1.0
+ * Zweck: Asynchrones Protokoll fuer Diagnosemeldungen und das Access-Log. Arbeitsthreads legen
+ *        Eintraege nur in einem lock-freien Ringpuffer ab; ein Hintergrund-Thread formatiert sie
+ *        und schreibt sie gesammelt (ein flush je Stapel). Ist der Puffer voll, werden Eintraege
+ *        verworfen und gezaehlt, statt die Arbeitsthreads zu blockieren.
+ */
+public final class HTTPLogger {
+    public enum Level {
+        ERROR,
+        WARN,
+        INFO,
+        DEBUG
+    }
+
+    /* Format des Access-Logs: Common/Combined Log Format oder eine JSON-Zeile je Anfrage */
+    public enum AccessLogFormat {
+        COMMON,
+        COMBINED,
+        JSON
+    }
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private static final DateTimeFormatter CLF_TIME = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+            .withZone(ZoneId.systemDefault());
+
+    /* Eine Diagnosemeldung */
+    private static class Message {
+        final long time = System.currentTimeMillis();
+        final Level level;
+        final String thread = Thread.currentThread().getName();
+        final String text;
+        final Throwable error;
+
+        Message(Level level, String text, Throwable error) {
+            this.level = level;
+            this.text = text;
+            this.error = error;
+        }
+    }
+
+    /* Eine bearbeitete Anfrage; formatiert wird erst im Schreib-Thread */
+    private static class AccessEntry {
+        final long time = System.currentTimeMillis();
+        InetAddress remote;
+        String method;
+        String path;
+        String version;
+        int status;
+        long bytes;
+        String referer;
+        String userAgent;
+        long micros;
+    }
+
+    private volatile Level level = Level.INFO;
+    private volatile AccessLogFormat accessLogFormat = AccessLogFormat.COMMON;
+    private volatile boolean accessLogEnabled = true;
+
+    private final Writer messageOut;
+    private volatile Writer accessOut;
+    /* true, sobald accessOut eine eigene Datei ist (die Standardausgabe wird nie geschlossen) */
+    private boolean accessOutOwned = false;
+
+    /* Begrenzte MPSC-Warteschlange (Vyukov): je Platz eine Sequenznummer statt eines Locks */
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private long dequeuePosition = 0;
+
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    /* Schreib-Thread schlaeft bei leerem Puffer, bis ein Erzeuger ihn weckt */
+    private volatile boolean writerIdle = false;
+
+    public HTTPLogger() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /* Konstruktor mit Parametern: Kapazitaet des Ringpuffers (wird auf eine Zweierpotenz aufgerundet) */
+    public HTTPLogger(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.messageOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8), 64 * 1024);
+        this.accessOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+
+        writerThread = new Thread(this::writeLoop, "HTTP Log Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() <= this.level.ordinal();
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public void setAccessLogFormat(AccessLogFormat format) {
+        this.accessLogFormat = format;
+    }
+
+    public void setAccessLogEnabled(boolean enabled) {
+        this.accessLogEnabled = enabled;
+    }
+
+    /*
+     * Schreibt das Access-Log in eine Datei statt auf die Standardausgabe. Der Wechsel geschieht unter
+     * dem Monitor von drain(): bereits angenommene Eintraege gehen noch in den alten Writer, der danach
+     * geleert und (falls es eine eigene Datei war) geschlossen wird.
+     */
+    public void setAccessLogFile(String path) throws IOException {
+        Writer file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8), 64 * 1024);
+        synchronized (this) {
+            drain();
+            Writer previous = accessOut;
+            boolean previousOwned = accessOutOwned;
+            accessOut = file;
+            accessOutOwned = true;
+            if (previousOwned) {
+                previous.close();
+            } else {
+                previous.flush();
+            }
+        }
+    }
+
+    public void error(String text) {
+        log(Level.ERROR, text, null);
+    }
+
+    public void error(String text, Throwable error) {
+        log(Level.ERROR, text, error);
+    }
+
+    public void warn(String text) {
+        log(Level.WARN, text, null);
+    }
+
+    public void info(String text) {
+        log(Level.INFO, text, null);
+    }
+
+    public void debug(String text) {
+        log(Level.DEBUG, text, null);
+    }
+
+    public void log(Level level, String text, Throwable error) {
+        if (isEnabled(level)) {
+            offer(new Message(level, text, error));
+        }
+    }
+
+    // Protokolliert eine bearbeitete Anfrage im Access-Log; bytes: tatsaechlich gesendete Bytes inkl. Header
+    public void access(InetAddress remote, HTTPRequest<?> request, HTTPResponse<?> response, long bytes, long micros) {
+        if (!accessLogEnabled) {
+            return;
+        }
+        AccessEntry entry = new AccessEntry();
+        entry.remote = remote;
+        if (request != null) {
+            entry.method = request.getMethod().name();
+            entry.path = request.getQuery() != null ? request.getPath() + "?" + request.getQuery() : request.getPath();
+            entry.version = request.getHttpVersion();
+            entry.referer = request.getHeader("Referer");
+            entry.userAgent = request.getHeader("User-Agent");
+        }
+        entry.status = response.getStatusCode();
+        entry.bytes = bytes;
+        entry.micros = micros;
+        offer(entry);
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Stellt einen Eintrag in den Ringpuffer; bei vollem Puffer wird er verworfen
+    private void offer(Object entry) {
+        while (true) {
+            long position = enqueuePosition.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    slots[index] = entry;
+                    /* Volatile (nicht lazySet): muss vor dem Lesen von writerIdle sichtbar sein, sonst geht ein Wecken verloren */
+                    sequences.set(index, position + 1);
+                    if (writerIdle) {
+                        LockSupport.unpark(writerThread);
+                    }
+                    return;
+                }
+            } else if (difference < 0) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    // true, wenn kein Eintrag zum Schreiben bereitsteht (nur vom Schreib-Thread aufgerufen)
+    private boolean isEmpty() {
+        return sequences.get((int) (dequeuePosition & mask)) != dequeuePosition + 1;
+    }
+
+    // Entnimmt den naechsten Eintrag (nur vom Schreib-Thread aufgerufen), null wenn leer
+    private Object poll() {
+        int index = (int) (dequeuePosition & mask);
+        if (sequences.get(index) != dequeuePosition + 1) {
+            return null;
+        }
+        Object entry = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, dequeuePosition + mask + 1);
+        dequeuePosition++;
+        return entry;
+    }
+
+    private void writeLoop() {
+        long reportedDrops = 0;
+        while (running) {
+            int written = drain();
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                write(new Message(Level.WARN, "Log buffer full, dropped " + (drops - reportedDrops) + " entries", null));
+                reportedDrops = drops;
+                flush();
+            }
+            if (written == 0) {
+                writerIdle = true;
+                /* Erneut pruefen: ein Eintrag von vor dem Setzen von writerIdle hat niemanden geweckt */
+                if (isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                writerIdle = false;
+            }
+        }
+        drain();
+    }
+
+    // Schreibt alle vorhandenen Eintraege als einen Stapel und leert danach die Writer
+    private synchronized int drain() {
+        int count = 0;
+        Object entry;
+        while ((entry = poll()) != null) {
+            write(entry);
+            count++;
+        }
+        if (count > 0) {
+            flush();
+        }
+        return count;
+    }
+
+    private void write(Object entry) {
+        try {
+            if (entry instanceof AccessEntry) {
+                accessOut.write(formatAccess((AccessEntry) entry));
+                accessOut.write('\n');
+            } else {
+                Message message = (Message) entry;
+                messageOut.write(Instant.ofEpochMilli(message.time) + " " + message.level
+                        + " [" + message.thread + "] " + message.text + "\n");
+                if (message.error != null) {
+                    StringWriter trace = new StringWriter();
+                    message.error.printStackTrace(new PrintWriter(trace));
+                    messageOut.write(trace.toString());
+                }
+            }
+        } catch (IOException e) {
+            /* Das Protokoll selbst kann nirgendwohin melden; Eintrag verwerfen */
+            dropped.increment();
+        }
+    }
+
+    private void flush() {
+        try {
+            messageOut.flush();
+            accessOut.flush();
+        } catch (IOException e) {
+            dropped.increment();
+        }
+    }
+
+    private String formatAccess(AccessEntry entry) {
+        String host = entry.remote != null ? entry.remote.getHostAddress() : "-";
+        String requestLine = entry.method != null ? entry.method + " " + entry.path + " " + entry.version : "-";
+
+        switch (accessLogFormat) {
+            case JSON:
+                return "{\"time\":\"" + Instant.ofEpochMilli(entry.time)
+                        + "\",\"remote\":\"" + host
+                        + "\",\"method\":" + jsonString(entry.method)
+                        + ",\"path\":" + jsonString(entry.path)
+                        + ",\"version\":" + jsonString(entry.version)
+                        + ",\"status\":" + entry.status
+                        + ",\"bytes\":" + entry.bytes
+                        + ",\"referer\":" + jsonString(entry.referer)
+                        + ",\"userAgent\":" + jsonString(entry.userAgent)
+                        + ",\"durationMicros\":" + entry.micros + "}";
+            case COMBINED:
+                return host + " - - [" + CLF_TIME.format(Instant.ofEpochMilli(entry.time)) + "] \"" + requestLine + "\" "
+                        + entry.status + " " + entry.bytes
+                        + " \"" + (entry.referer != null ? entry.referer : "-") + "\""
+                        + " \"" + (entry.userAgent != null ? entry.userAgent : "-") + "\"";
+            default:
+                return host + " - - [" + CLF_TIME.format(Instant.ofEpochMilli(entry.time)) + "] \"" + requestLine + "\" "
+                        + entry.status + " " + entry.bytes;
+        }
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Beendet den Schreib-Thread, nachdem alle bereits angenommenen Eintraege geschrieben wurden
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+}
@@ -24,6 +24,11 @@ public abstract class HTTPMessage<T> {
         return new HashMap<String, String>(headers);
     }
 
+    /* Direkter Zugriff ohne Kopie fuer den HTTPResponseEncoder; nur lesend verwenden */
+    Map<String, String> headerMap() {
+        return headers;
+    }
+
     protected void setHeaders(Map<String, String> headers) {
         this.headers = headers;
     }
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * HTTPRanges.java
+ *
+ * Version 1.0
+ * Zweck: Auswertung der Header Range und If-Range (RFC 7233). Liefert die angeforderten
+ *        Byte-Bereiche einer Datei, damit nur diese Ausschnitte gesendet werden muessen
+ *        (Fortsetzen von Downloads, Springen in PDF-Viewern).
+ */
+class HTTPRanges {
+    /* Mehr Bereiche pro Anfrage werden ignoriert und die ganze Datei gesendet (Schutz vor Missbrauch) */
+    static final int MAX_RANGES = 16;
+
+    private HTTPRanges() {
+    }
+
+    /*
+     * Liefert die Bereiche als {erstes Byte, letztes Byte} (inklusive) oder null, wenn die Anfrage
+     * als normale 200-Anfrage zu behandeln ist (kein oder ungueltiger Range-Header, If-Range passt
+     * nicht). Eine leere Liste bedeutet: kein Bereich erfuellbar --> 416.
+     */
+    static List<long[]> requestedRanges(HTTPRequest<?> request, long length, String etag, String lastModified) {
+        String range = request.getHeader("Range");
+        if (range == null) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRangeMatches(ifRange.trim(), etag, lastModified)) {
+            return null;
+        }
+        return parse(range, length);
+    }
+
+    // If-Range: starker Vergleich des ETags bzw. exakt gleiches Last-Modified-Datum
+    private static boolean ifRangeMatches(String ifRange, String etag, String lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        return ifRange.equals(lastModified);
+    }
+
+    static List<long[]> parse(String header, long length) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+        for (String spec : specs) {
+            String s = spec.trim();
+            int dash = s.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    /* Suffix: die letzten n Bytes */
+                    long suffix = Long.parseLong(s.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && length > 0) {
+                        ranges.add(new long[]{Math.max(0, length - suffix), length - 1});
+                    }
+                } else {
+                    long first = Long.parseLong(s.substring(0, dash));
+                    long last = dash == s.length() - 1 ? Long.MAX_VALUE : Long.parseLong(s.substring(dash + 1));
+                    if (first < 0 || last < first) {
+                        return null;
+                    }
+                    if (first < length) {
+                        ranges.add(new long[]{first, Math.min(last, length - 1)});
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+}
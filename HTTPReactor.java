@@ -0,0 +1,527 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * HTTPReactor.java
+ *
+ * Version 1.0
+ * Zweck: Ereignisschleife der NIO-Engine. Ein Reactor verwaltet beliebig viele nicht-blockierende
+ *        Verbindungen ueber einen Selector und erzeugt die Antworten mit derselben Logik wie
+ *        der HTTPWorkerThread.
+ */
+class HTTPReactor extends Thread {
+    /* Groesse des Lesepuffers je Verbindung */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /* Intervall in ms, in dem untaetige bzw. zu langsame Verbindungen gesucht werden */
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private final HTTPServer server;
+    private final Selector selector;
+
+    /* Intervall in ms, in dem beim Beenden geprueft wird, ob alle Verbindungen abgearbeitet sind */
+    private static final long DRAIN_CHECK_INTERVAL = 50;
+
+    /* Frist (System.nanoTime()) fuer das Abarbeiten beim Beenden, 0 = Server laeuft */
+    private volatile long drainDeadline = 0;
+
+    /* Ergebnis des Abarbeitens je Verbindung; nach join() auslesbar */
+    private int drained;
+    private int idleClosed;
+    private int aborted;
+
+    /* Gesetzt, sobald der Reactor keine Verbindungen mehr uebernimmt */
+    private volatile boolean closed = false;
+
+    /* Vom Acceptor uebergebene, noch nicht am Selector registrierte Verbindungen */
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
+    /* Zustand einer einzelnen Verbindung */
+    private static class Connection {
+        /* Empfangene, noch nicht geparste Bytes (Schreibmodus) */
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final HTTPRequestParser parser;
+        /* Gegenstelle (Zulassung je IP-Adresse, Access-Log) */
+        final InetAddress remote;
+        /* Antwortkopf (Pool-Puffer des HTTPResponseEncoder) und ggf. separater Body, gesendet per gathering write */
+        ByteBuffer[] out;
+        /* Noch nicht vollstaendig gesendetes "100 Continue"; geht jeder Antwort voraus */
+        ByteBuffer interim;
+        /* Weitere Teile der Antwort (HTTPResponse.FileBody oder ByteBuffer), die nach dem Kopf gesendet werden */
+        Iterator<Object> parts;
+        /* Noch zu sendender Dateibereich des aktuellen Teils */
+        FileChannel file;
+        long filePosition;
+        long fileEnd;
+        /* Schrittweise erzeugter Body (HTTPResponse.StreamingBody), ggf. in Chunks gerahmt */
+        HTTPResponse.StreamingBody stream;
+        boolean chunked;
+        boolean keepAlive;
+        int requestCount;
+        long lastActivity = System.currentTimeMillis();
+        /* Zeitpunkt in ms, zu dem das erste Byte der aktuellen Anfrage eintraf (fuer headerTimeout) */
+        long requestStart;
+        /* Fuer die Kennzahlen: gesendete Anfrage/Antwort und Zeitpunkte der Phasen */
+        HTTPRequest<HTTPRequestBody> request;
+        HTTPResponse<?> response;
+        long parseStart;
+        long parseNanos;
+        long handleNanos;
+        long writeStart;
+        /* Von der aktuellen Antwort bereits gesendete Bytes */
+        long written;
+
+        Connection(HTTPServer server, InetAddress remote) {
+            this.remote = remote;
+            parser = new HTTPRequestParser(server.maxRequestLine, server.maxHeaderSize, server.maxHeaderCount, server.maxRequestBodySize);
+        }
+    }
+
+    /* Konstruktor */
+    public HTTPReactor(int num, HTTPServer server) throws IOException {
+        super("HTTP Reactor " + num);
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    // Uebernimmt eine neu angenommene Verbindung (wird vom Acceptor-Thread aufgerufen)
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        if (closed) {
+            /* Reactor bereits beendet: die Verbindung wuerde nie registriert */
+            closePendingChannels();
+            return;
+        }
+        selector.wakeup();
+    }
+
+    /*
+     * Beginnt das Abarbeiten (HTTPServer.stop()): untaetige Verbindungen werden geschlossen, laufende
+     * Anfragen bis zur Frist fertig bearbeitet; danach endet der Reactor und bricht den Rest ab
+     */
+    public void drain(long deadline) {
+        drainDeadline = deadline;
+        selector.wakeup();
+    }
+
+    public int getDrained() {
+        return drained;
+    }
+
+    public int getIdleClosed() {
+        return idleClosed;
+    }
+
+    public int getAborted() {
+        return aborted;
+    }
+
+    public void run() {
+        try {
+            long lastIdleCheck = System.currentTimeMillis();
+            while (server.serviceRequested || drainDeadline != 0) {
+                selector.select(drainDeadline != 0 ? DRAIN_CHECK_INTERVAL : IDLE_CHECK_INTERVAL);
+                registerPendingChannels();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            handleRead(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handleWrite(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        /* Fehler betreffen nur diese eine Verbindung, nicht den ganzen Reactor */
+                        close(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                    checkTimeouts(now);
+                    lastIdleCheck = now;
+                }
+                if (drainDeadline != 0 && (closeIdleConnections() || System.nanoTime() - drainDeadline >= 0)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            server.log.error(getName() + " failed", e);
+        } finally {
+            closed = true;
+            for (SelectionKey key : selector.keys()) {
+                /* Frist abgelaufen, Anfrage bzw. Antwort noch nicht fertig */
+                boolean abort = drainDeadline != 0 && key.attachment() != null;
+                if (abort) {
+                    aborted++;
+                }
+                close(key, !abort);
+            }
+            /* Uebergebene, aber nicht mehr registrierte Verbindungen wurden nie bedient */
+            int unregistered = closePendingChannels();
+            if (drainDeadline != 0) {
+                aborted += unregistered;
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                server.log.error(getName() + " failed to close selector", e);
+            }
+            server.log.debug(getName() + " stopped!");
+        }
+    }
+
+    // Schliesst alle noch nicht registrierten Verbindungen und gibt ihre Zulassung frei; liefert deren Anzahl
+    private int closePendingChannels() {
+        int count = 0;
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            server.releaseConnection(channel.socket().getInetAddress());
+            try {
+                channel.close();
+            } catch (IOException e) {
+                server.log.debug("Connection aborted by client!");
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // Registriert alle wartenden Verbindungen fuer Lese-Ereignisse
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            InetAddress remote = channel.socket().getInetAddress();
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(server, remote));
+                server.metrics.connectionOpened();
+            } catch (IOException e) {
+                /* Verbindung bereits vom Client geschlossen: nur die Zulassung zurueckgeben */
+                server.log.debug("Connection aborted by client!");
+                server.releaseConnection(remote);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Liest verfuegbare Bytes und bearbeitet die Anfrage, sobald der Header vollstaendig ist
+    private void handleRead(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        if (channel.read(connection.in) < 0) {
+            close(key);
+            return;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+
+        processRequest(key);
+    }
+
+    // Bearbeitet die naechste vollstaendig im Puffer liegende Anfrage (auch per Pipelining gesendete)
+    private void processRequest(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+
+        /* Geparste Bytes aus dem Puffer entfernen, nachfolgende Anfragen bleiben erhalten */
+        connection.in.flip();
+        if (connection.parser.isIdle() && connection.in.hasRemaining()) {
+            connection.parseStart = System.nanoTime();
+            connection.requestStart = System.currentTimeMillis();
+        }
+        boolean complete = connection.parser.parse(connection.in);
+        connection.in.compact();
+        if (!complete) {
+            if (connection.parser.takeContinueExpected()) {
+                /*
+                 * Client wartet auf die Freigabe des Bodies. Meist passen die 25 Bytes in einem write hinein;
+                 * sonst sendet handleWrite den Rest, waehrend weiter gelesen wird.
+                 */
+                ByteBuffer interim = HTTPResponseEncoder.continueResponse();
+                ((SocketChannel) key.channel()).write(interim);
+                if (interim.hasRemaining()) {
+                    connection.interim = interim;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+            /* Anfrage noch unvollstaendig --> auf weitere Daten warten */
+            return;
+        }
+
+        long start = System.nanoTime();
+        connection.parseNanos = start - connection.parseStart;
+        HTTPRequest<HTTPRequestBody> request = connection.parser.getRequest();
+        /* Schon hier merken, damit close() den Body auch bei einem Fehler freigibt */
+        connection.request = request;
+        HTTPResponse<?> response;
+        if (request == null) {
+            /* Ungueltige Anfrage --> 400 (bzw. 413) senden und Verbindung schliessen */
+            server.log.info("Bad Request: " + connection.parser.getErrorMessage());
+            response = HTTPWorkerThread.errorResponse(connection.parser);
+            connection.keepAlive = false;
+        } else {
+            response = HTTPWorkerThread.generateHTTPResponse(server, request);
+            connection.keepAlive = HTTPWorkerThread.applyConnectionHeaders(server, request, response, ++connection.requestCount);
+        }
+        respond(key, connection, response, start);
+    }
+
+    // Beginnt das Senden einer Antwort; handleWrite sendet sie, sobald der Socket schreibbereit ist
+    private static void respond(SelectionKey key, Connection connection, HTTPResponse<?> response, long start) {
+        connection.parser.reset();
+        connection.response = response;
+        connection.writeStart = System.nanoTime();
+        connection.handleNanos = connection.writeStart - start;
+        connection.written = 0;
+
+        ByteBuffer head = HTTPResponseEncoder.encode(response);
+        ByteBuffer body = HTTPResponseEncoder.separateBody(response);
+        connection.out = body != null ? new ByteBuffer[]{head, body} : new ByteBuffer[]{head};
+        if (response.Body() instanceof HTTPResponse.FileBody) {
+            connection.parts = List.<Object>of(response.Body()).iterator();
+        } else if (response.Body() instanceof HTTPResponse.MultipartBody) {
+            connection.parts = ((HTTPResponse.MultipartBody) response.Body()).getParts().iterator();
+        } else if (response.Body() instanceof HTTPResponse.StreamingBody) {
+            connection.stream = (HTTPResponse.StreamingBody) response.Body();
+            connection.chunked = HTTPResponseEncoder.isChunked(response);
+        }
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    // Schreibt so viel der Antwort wie der Socket aufnimmt; danach naechste Anfrage oder Verbindungsabbau
+    private void handleWrite(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        connection.lastActivity = System.currentTimeMillis();
+        if (connection.interim != null) {
+            channel.write(connection.interim);
+            if (connection.interim.hasRemaining()) {
+                return;
+            }
+            connection.interim = null;
+            if (connection.response == null) {
+                /* Body der Anfrage wird noch gelesen */
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+        }
+        while (true) {
+            if (connection.out != null) {
+                connection.written += channel.write(connection.out);
+                if (connection.out[connection.out.length - 1].hasRemaining()) {
+                    return;
+                }
+                releaseOut(connection);
+            }
+
+            if (connection.file != null) {
+                /* Dateiinhalt per transferTo (sendfile) direkt in den Socket, so weit er Platz hat */
+                long transferred = connection.file.transferTo(
+                        connection.filePosition, connection.fileEnd - connection.filePosition, channel);
+                connection.filePosition += transferred;
+                connection.written += transferred;
+                if (connection.filePosition < connection.fileEnd) {
+                    return;
+                }
+                closeFile(connection);
+            }
+
+            if (connection.parts != null && connection.parts.hasNext()) {
+                nextPart(connection, connection.parts.next());
+            } else if (connection.stream != null) {
+                /* Naechsten Block des Bodies erst erzeugen, wenn der vorige gesendet ist */
+                ByteBuffer buffer = HTTPResponseEncoder.acquireBuffer();
+                connection.out = new ByteBuffer[]{buffer};
+                if (!HTTPResponseEncoder.nextChunk(connection.stream, buffer, connection.chunked)) {
+                    closeStream(connection);
+                }
+            } else {
+                break;
+            }
+        }
+        connection.parts = null;
+
+        long end = System.nanoTime();
+        server.log.access(connection.remote, connection.request, connection.response, connection.written,
+                (end - connection.writeStart + connection.handleNanos) / 1000);
+        server.metrics.recordRequest(connection.request, connection.response,
+                connection.parseNanos, connection.handleNanos, end - connection.writeStart, connection.written);
+        closeRequestBody(connection);
+        connection.request = null;
+        connection.response = null;
+        if (connection.keepAlive) {
+            key.interestOps(SelectionKey.OP_READ);
+            processRequest(key);
+        } else {
+            close(key);
+        }
+    }
+
+    // Bereitet den naechsten Teil eines mehrteiligen Bodies (oder den einzigen Datei-Body) zum Senden vor
+    private static void nextPart(Connection connection, Object part) throws IOException {
+        if (part instanceof HTTPResponse.FileBody) {
+            HTTPResponse.FileBody fileBody = (HTTPResponse.FileBody) part;
+            connection.file = fileBody.open();
+            connection.filePosition = fileBody.getOffset();
+            connection.fileEnd = fileBody.getOffset() + fileBody.getLength();
+        } else {
+            connection.out = new ByteBuffer[]{((ByteBuffer) part).duplicate()};
+        }
+    }
+
+    // Schliesst beim Beenden alle Verbindungen zwischen zwei Anfragen; true, wenn keine Verbindung mehr offen ist
+    private boolean closeIdleConnections() {
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && connection.response == null && connection.parser.isIdle()) {
+                idleClosed++;
+                close(key, false);
+            }
+        }
+        /* Geschlossene Schluessel bleiben bis zum naechsten select() registriert */
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Schliesst Verbindungen, die eine Frist ueberschritten haben: Keep-Alive-Verbindungen nach
+     * keepAliveTimeout Leerlauf, Antworten nach writeTimeout ohne Sendefortschritt und begonnene
+     * Anfragen nach headerTimeout (ab dem ersten Byte) bzw. readTimeout ohne neue Daten (mit 408)
+     */
+    private void checkTimeouts(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection == null) {
+                continue;
+            }
+            long idle = now - connection.lastActivity;
+            if (connection.response != null) {
+                if (idle > server.writeTimeout) {
+                    server.log.info("Write timeout, closing connection to " + connection.remote);
+                    server.metrics.recordTimeout("write");
+                    close(key);
+                }
+            } else if (connection.parser.isIdle()) {
+                if (idle > server.keepAliveTimeout) {
+                    server.metrics.recordTimeout("idle");
+                    close(key);
+                }
+            } else if (connection.parser.isReadingHeader() && now - connection.requestStart > server.headerTimeout) {
+                sendRequestTimeout(key, "header");
+            } else if (idle > server.readTimeout) {
+                sendRequestTimeout(key, "read");
+            }
+        }
+    }
+
+    /*
+     * Sendet 408 und schliesst danach die Verbindung. Die Antwort laeuft ueber den normalen Sendeweg
+     * (handleWrite), wird also auch bei einem vollen Sendepuffer ganz gesendet; haengt der Client,
+     * bricht writeTimeout ab. Die unvollstaendige Anfrage verwirft respond() mit dem Parser.
+     */
+    private void sendRequestTimeout(SelectionKey key, String kind) {
+        Connection connection = (Connection) key.attachment();
+        server.log.info("Request timeout (" + kind + ") from " + connection.remote);
+        server.metrics.recordTimeout(kind);
+        long start = System.nanoTime();
+        connection.parseNanos = 0;
+        connection.keepAlive = false;
+        connection.lastActivity = System.currentTimeMillis();
+        respond(key, connection, HTTPWorkerThread.timeoutResponse(), start);
+    }
+
+    // Gibt den Kopfpuffer (bzw. Teilpuffer) der (ggf. nur teilweise) gesendeten Antwort an den Pool zurueck
+    private static void releaseOut(Connection connection) {
+        if (connection.out != null) {
+            HTTPResponseEncoder.releaseBuffer(connection.out[0]);
+            connection.out = null;
+        }
+    }
+
+    // Schliesst die Datei einer (ggf. nur teilweise) gesendeten Antwort
+    private void closeFile(Connection connection) {
+        if (connection.file != null) {
+            try {
+                connection.file.close();
+            } catch (IOException e) {
+                server.log.error("Failed to close file", e);
+            }
+            connection.file = null;
+        }
+    }
+
+    // Schliesst den StreamingBody einer (ggf. nur teilweise) gesendeten Antwort
+    private void closeStream(Connection connection) {
+        if (connection.stream != null) {
+            try {
+                connection.stream.close();
+            } catch (IOException e) {
+                server.log.error("Failed to close response body", e);
+            }
+            connection.stream = null;
+        }
+    }
+
+    // Gibt den Body der gesendeten (bzw. abgebrochenen) Anfrage frei: Pool-Puffer oder temporaere Datei
+    private void closeRequestBody(Connection connection) {
+        if (connection.request != null && connection.request.Body() != null) {
+            try {
+                connection.request.Body().close();
+            } catch (IOException e) {
+                server.log.error("Failed to release request body", e);
+            }
+        }
+    }
+
+    // Schliesst eine Verbindung und entfernt sie vom Selector
+    private void close(SelectionKey key) {
+        close(key, true);
+    }
+
+    // drained: beim Abarbeiten regulaer beendet (nicht als untaetig geschlossen bzw. abgebrochen gezaehlt)
+    private void close(SelectionKey key, boolean drained) {
+        Connection connection = (Connection) key.attachment();
+        if (connection != null) {
+            closeFile(connection);
+            closeStream(connection);
+            releaseOut(connection);
+            closeRequestBody(connection);
+            connection.parser.discardBody();
+            /* Anhang entfernen, damit eine Verbindung nur einmal gezaehlt und freigegeben wird */
+            key.attach(null);
+            server.metrics.connectionClosed();
+            if (drainDeadline != 0 && drained) {
+                this.drained++;
+            }
+            server.releaseConnection(connection.remote);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            server.log.debug("Connection aborted by client!");
+        }
+    }
+}
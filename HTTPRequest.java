@@ -1,3 +1,5 @@
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +25,12 @@ public class HTTPRequest<T> extends HTTPMessage<T> {
 
     private HTTPMethod method;
     private String path;
+    /* Query-Teil des Anfrageziels ohne "?" (null, wenn keiner angegeben ist); Parameter werden erst bei Bedarf decodiert */
+    private String query;
+    private Map<String, String> queryParameters;
+    /* Vom HTTPRouter gesetzt: Muster der gefundenen Route und Werte ihrer Pfadparameter ({name}) */
+    private String route;
+    private Map<String, String> pathParameters = Map.of();
 
     public HTTPRequest(HTTPMethod method, String path, String version, Map<String, String> headers, T body) {
         super(version, headers, body);
@@ -46,10 +54,68 @@ public class HTTPRequest<T> extends HTTPMessage<T> {
         this.path = path;
     }
 
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+        this.queryParameters = null;
+    }
+
+    // Wert eines Query-Parameters (URL-decodiert); bei mehrfach angegebenen Namen zaehlt der erste
+    public String getQueryParameter(String name) {
+        return getQueryParameters().get(name);
+    }
+
+    public Map<String, String> getQueryParameters() {
+        if (queryParameters == null) {
+            Map<String, String> parameters = new HashMap<String, String>();
+            if (query != null && !query.isEmpty()) {
+                for (String pair : query.split("&")) {
+                    int equals = pair.indexOf('=');
+                    String name = equals < 0 ? pair : pair.substring(0, equals);
+                    String value = equals < 0 ? "" : pair.substring(equals + 1);
+                    try {
+                        parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+                    } catch (IllegalArgumentException e) {
+                        /* Ungueltige %-Codierung: Parameter ignorieren */
+                    }
+                }
+            }
+            queryParameters = parameters;
+        }
+        return queryParameters;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    public String getPathParameter(String name) {
+        return pathParameters.get(name);
+    }
+
+    public Map<String, String> getPathParameters() {
+        return pathParameters;
+    }
+
+    // Ergaenzt einen Pfadparameter (HTTPRouter); die Map wird erst beim ersten Parameter angelegt
+    void addPathParameter(String name, String value) {
+        if (pathParameters.isEmpty()) {
+            pathParameters = new HashMap<String, String>(4);
+        }
+        pathParameters.put(name, value);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(method).append(" ").append(path).append(" ").append(getHttpVersion()).append("\n");
+        sb.append(method).append(" ").append(path).append(query != null ? "?" + query : "").append(" ").append(getHttpVersion()).append("\n");
         for (Map.Entry<String, String> entry : this.Headers().entrySet()) {
             sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
         }
@@ -0,0 +1,129 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * HTTPRequestBody.java
+ *
+ * Version 1.0
+ * Zweck: Empfangener Body einer Anfrage (z.B. POST). Kleine Bodies liegen in einem Pool-Puffer des
+ *        HTTPResponseEncoder; wird dieser zu klein, wandert der Inhalt in eine temporaere Datei, die
+ *        beim Schliessen geloescht wird. Der Speicherbedarf je Anfrage ist damit unabhaengig von der
+ *        Groesse des Bodies. Der Server schliesst den Body, sobald die Antwort gesendet ist.
+ */
+public class HTTPRequestBody implements Closeable {
+    /* Pool-Puffer (Schreibmodus), null nach dem Auslagern bzw. Schliessen */
+    private ByteBuffer memory;
+    private Path spillFile;
+    private FileChannel file;
+    private long length;
+
+    HTTPRequestBody() {
+        memory = HTTPResponseEncoder.acquireBuffer();
+    }
+
+    // Haengt die verbleibenden Bytes von src an; lagert bei Bedarf in eine temporaere Datei aus
+    void append(ByteBuffer src) throws IOException {
+        length += src.remaining();
+        if (file == null && src.remaining() <= memory.remaining()) {
+            memory.put(src);
+            return;
+        }
+        if (file == null) {
+            spill();
+        }
+        while (src.hasRemaining()) {
+            file.write(src);
+        }
+    }
+
+    private void spill() throws IOException {
+        spillFile = Files.createTempFile("http-body-", ".tmp");
+        file = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        memory.flip();
+        while (memory.hasRemaining()) {
+            file.write(memory);
+        }
+        HTTPResponseEncoder.releaseBuffer(memory);
+        memory = null;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    // true, wenn der Body in eine temporaere Datei ausgelagert wurde
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /*
+     * Liest den Body von Beginn an; mehrere Aufrufe liefern unabhaengige Sichten. Die Sicht ist
+     * nur gueltig, solange der Body nicht geschlossen ist (also bis die Antwort gesendet wurde).
+     */
+    public HTTPResponse.StreamingBody content() {
+        if (file == null) {
+            ByteBuffer view = memory.duplicate().flip();
+            return buffer -> {
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(view.remaining(), buffer.remaining());
+                buffer.put(view.slice(view.position(), count));
+                view.position(view.position() + count);
+                return count;
+            };
+        }
+        return new HTTPResponse.StreamingBody() {
+            private long position = 0;
+
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                int count = file.read(buffer, position);
+                if (count > 0) {
+                    position += count;
+                }
+                return count;
+            }
+        };
+    }
+
+    // Liest den ganzen Body in ein Array (nur fuer Bodies, deren Groesse der Aufrufer kennt bzw. begrenzt)
+    public byte[] bytes() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE - 8));
+        HTTPResponse.StreamingBody source = content();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (source.read(buffer) >= 0) {
+            content.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return content.toByteArray();
+    }
+
+    public String asString() throws IOException {
+        return new String(bytes(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (memory != null) {
+            HTTPResponseEncoder.releaseBuffer(memory);
+            memory = null;
+        }
+        if (file != null) {
+            /* DELETE_ON_CLOSE entfernt die temporaere Datei */
+            file.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<" + length + " bytes" + (file != null ? " in " + spillFile : "") + ">";
+    }
+}
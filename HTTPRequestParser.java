@@ -0,0 +1,612 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * HTTPRequestParser.java
+ *
+ * Version 1.0
+ * Zweck: Zustandsautomat, der eine HTTP-Anfrage direkt aus Bytes (ASCII) liest. Er kann mit
+ *        beliebig zerstueckelten Puffern gefuettert werden und setzt beim naechsten Aufruf dort
+ *        fort, wo er aufgehoert hat. Bekannte Headernamen werden auf eine kanonische Schreibweise
+ *        abgebildet, Groessengrenzen werden eingehalten, und ungueltige Anfragen fuehren zu einem
+ *        Fehlerstatus statt zu einer Exception. Ein Body (Content-Length oder Transfer-Encoding:
+ *        chunked) wird ebenfalls gelesen und in einem HTTPRequestBody abgelegt.
+ */
+class HTTPRequestParser {
+    public enum State {
+        REQUEST_LINE,
+        HEADERS,
+        /* Body mit Content-Length */
+        BODY,
+        /* Body mit Transfer-Encoding: chunked: Groessenzeile, Daten, CRLF nach den Daten, Trailer */
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILERS,
+        COMPLETE,
+        ERROR
+    }
+
+    /* Standardgrenzen: Laenge der Anfragezeile, Gesamtgroesse der Header, Anzahl der Header */
+    public static final int DEFAULT_MAX_REQUEST_LINE = 8 * 1024;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_HEADER_COUNT = 100;
+    public static final long DEFAULT_MAX_BODY_SIZE = 10L * 1024 * 1024;
+
+    /* Anfangsgroesse des Zeilenpuffers; waechst bei Bedarf bis zur jeweiligen Grenze */
+    private static final int INITIAL_LINE_BUFFER = 256;
+
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final String HTTP_1_1 = "HTTP/1.1";
+
+    /* Kanonische Headernamen, gruppiert nach Laenge fuer den allokationsfreien Vergleich */
+    private static final String[][] KNOWN_HEADERS;
+
+    static {
+        String[] names = {
+                "Host", "User-Agent", "Accept", "Accept-Encoding", "Accept-Language", "Accept-Charset",
+                "Connection", "Keep-Alive", "Content-Length", "Content-Type", "Transfer-Encoding",
+                "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range", "Range",
+                "Cache-Control", "Pragma", "Cookie", "Referer", "Origin", "Authorization", "Expect",
+                "Upgrade", "Upgrade-Insecure-Requests", "DNT", "TE", "Via", "X-Forwarded-For",
+                "Sec-Fetch-Dest", "Sec-Fetch-Mode", "Sec-Fetch-Site", "Sec-Fetch-User"
+        };
+        Map<Integer, String[]> byLength = new HashMap<Integer, String[]>();
+        int maxLength = 0;
+        for (String name : names) {
+            String[] group = byLength.getOrDefault(name.length(), new String[0]);
+            String[] extended = new String[group.length + 1];
+            System.arraycopy(group, 0, extended, 0, group.length);
+            extended[group.length] = name;
+            byLength.put(name.length(), extended);
+            maxLength = Math.max(maxLength, name.length());
+        }
+        KNOWN_HEADERS = new String[maxLength + 1][];
+        for (Map.Entry<Integer, String[]> entry : byLength.entrySet()) {
+            KNOWN_HEADERS[entry.getKey()] = entry.getValue();
+        }
+    }
+
+    private final int maxRequestLine;
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long maxBodySize;
+
+    private State state = State.REQUEST_LINE;
+    private byte[] line = new byte[INITIAL_LINE_BUFFER];
+    private int lineLength;
+    private int headerBytes;
+    /* Anzahl der Headerzeilen; wiederholte Namen werden in der Map zusammengefasst und zaehlen dort nur einmal */
+    private int headerCount;
+    private long bytesConsumed;
+
+    private HTTPRequest.HTTPMethod method;
+    private String path;
+    private String query;
+    private String version;
+    private Map<String, String> headers;
+    /* Body der aktuellen Anfrage (null ohne Body) und noch fehlende Bytes des Bodies bzw. Chunks */
+    private HTTPRequestBody body;
+    private long bodyRemaining;
+    private boolean continueExpected;
+    private String errorMessage;
+    private HTTPResponse.HTTPStatusCode errorStatus;
+
+    public HTTPRequestParser() {
+        this(DEFAULT_MAX_REQUEST_LINE, DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_HEADER_COUNT, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public HTTPRequestParser(int maxRequestLine, int maxHeaderSize, int maxHeaderCount) {
+        this(maxRequestLine, maxHeaderSize, maxHeaderCount, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /*
+     * Konstruktor mit Parametern: maximale Laenge der Anfragezeile, maximale Headergroesse,
+     * maximale Headeranzahl, maximale Groesse eines Bodies (groessere werden mit 413 abgelehnt)
+     */
+    public HTTPRequestParser(int maxRequestLine, int maxHeaderSize, int maxHeaderCount, long maxBodySize) {
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxBodySize = maxBodySize;
+        reset();
+    }
+
+    // Bereitet den Parser auf die naechste Anfrage derselben Verbindung vor
+    public void reset() {
+        state = State.REQUEST_LINE;
+        lineLength = 0;
+        headerBytes = 0;
+        headerCount = 0;
+        bytesConsumed = 0;
+        method = null;
+        path = null;
+        query = null;
+        version = null;
+        headers = new HashMap<String, String>();
+        discardBody();
+        bodyRemaining = 0;
+        continueExpected = false;
+        errorMessage = null;
+        errorStatus = HTTPResponse.HTTPStatusCode.BAD_REQUEST;
+    }
+
+    // Gibt einen nicht an eine Anfrage uebergebenen Body frei (Anfrage unvollstaendig oder ungueltig)
+    public void discardBody() {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                /* Temporaere Datei konnte nicht geloescht werden; nichts weiter zu tun */
+            }
+            body = null;
+        }
+    }
+
+    /*
+     * Verarbeitet die Bytes zwischen position und limit des Puffers. Liefert true, sobald die Anfrage
+     * vollstaendig oder ungueltig ist; die position steht dann direkt hinter der Anfrage, sodass
+     * per Pipelining nachfolgende Anfragen im Puffer erhalten bleiben.
+     */
+    public boolean parse(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && state != State.COMPLETE && state != State.ERROR) {
+            if (state == State.BODY || state == State.CHUNK_DATA) {
+                readBody(buffer);
+                continue;
+            }
+            byte b = buffer.get();
+            bytesConsumed++;
+
+            if (b == '\n') {
+                /* Ein vorangestelltes CR gehoert zum Zeilenende */
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                switch (state) {
+                    case REQUEST_LINE:
+                        parseRequestLine();
+                        break;
+                    case HEADERS:
+                        parseHeaderLine();
+                        break;
+                    case CHUNK_SIZE:
+                        parseChunkSize();
+                        break;
+                    case CHUNK_DATA_END:
+                        if (lineLength != 0) {
+                            fail("Malformed chunk");
+                        } else {
+                            state = State.CHUNK_SIZE;
+                        }
+                        break;
+                    default:
+                        parseTrailerLine();
+                        break;
+                }
+                lineLength = 0;
+            } else {
+                append(b);
+            }
+        }
+        return state == State.COMPLETE || state == State.ERROR;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // true, solange noch kein einziges Byte dieser Anfrage gelesen wurde
+    public boolean isIdle() {
+        return state == State.REQUEST_LINE && bytesConsumed == 0;
+    }
+
+    // true, solange Anfragezeile oder Header gelesen werden (fuer den Header-Timeout)
+    public boolean isReadingHeader() {
+        return state == State.REQUEST_LINE || state == State.HEADERS;
+    }
+
+    public boolean hasError() {
+        return state == State.ERROR;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    // Status der Fehlerantwort: 400, 413 bei zu grossem Body, 500 wenn der Body nicht gespeichert werden konnte
+    public HTTPResponse.HTTPStatusCode getErrorStatus() {
+        return errorStatus;
+    }
+
+    /*
+     * true genau einmal, nachdem die Header einer Anfrage mit "Expect: 100-continue" gelesen sind
+     * und der Body noch aussteht: der Aufrufer sendet dann "100 Continue", damit der Client ihn schickt.
+     */
+    public boolean takeContinueExpected() {
+        boolean expected = continueExpected;
+        continueExpected = false;
+        return expected;
+    }
+
+    public HTTPRequest<HTTPRequestBody> getRequest() {
+        if (state != State.COMPLETE) {
+            return null;
+        }
+        /* Der Body gehoert ab hier der Anfrage (und wird mit ihr geschlossen) */
+        HTTPRequest<HTTPRequestBody> request = new HTTPRequest<HTTPRequestBody>(method, path, version, headers, body);
+        request.setQuery(query);
+        body = null;
+        return request;
+    }
+
+    private void append(byte b) {
+        int limit = state == State.HEADERS || state == State.TRAILERS ? maxHeaderSize - headerBytes : maxRequestLine;
+        if (lineLength >= limit) {
+            fail(state == State.HEADERS || state == State.TRAILERS ? "Request header fields too large" : "Request line too long");
+            return;
+        }
+        if (lineLength == line.length) {
+            byte[] larger = new byte[Math.min(line.length * 2, Math.max(limit, line.length + 1))];
+            System.arraycopy(line, 0, larger, 0, lineLength);
+            line = larger;
+        }
+        line[lineLength++] = b;
+    }
+
+    // Anfragezeile: METHODE SP PFAD SP VERSION
+    private void parseRequestLine() {
+        if (lineLength == 0) {
+            /* Leerzeilen vor der Anfragezeile sind erlaubt und werden ignoriert */
+            return;
+        }
+
+        int firstSpace = indexOf((byte) ' ', 0);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf((byte) ' ', firstSpace + 1);
+        if (firstSpace <= 0 || secondSpace <= firstSpace + 1 || indexOf((byte) ' ', secondSpace + 1) >= 0) {
+            fail("Malformed request line");
+            return;
+        }
+
+        method = parseMethod(firstSpace);
+        if (method == null) {
+            fail("Method not supported");
+            return;
+        }
+        /* Anfrageziel in Pfad und Query aufteilen: Routing und Dateizugriff sehen nur den Pfad */
+        int questionMark = indexOf((byte) '?', firstSpace + 1);
+        if (questionMark >= 0 && questionMark < secondSpace) {
+            path = ascii(firstSpace + 1, questionMark);
+            query = ascii(questionMark + 1, secondSpace);
+        } else {
+            path = ascii(firstSpace + 1, secondSpace);
+        }
+        path = normalizePath(path);
+        if (path == null) {
+            fail("Malformed request path");
+            return;
+        }
+        version = parseVersion(secondSpace + 1, lineLength);
+        if (version == null) {
+            fail("Malformed HTTP version");
+            return;
+        }
+        state = State.HEADERS;
+    }
+
+    // Headerzeile: NAME ":" OWS WERT OWS; eine Leerzeile beendet den Header-Block
+    private void parseHeaderLine() {
+        if (lineLength == 0) {
+            startBody();
+            return;
+        }
+        headerBytes += lineLength + 2;
+        if (++headerCount > maxHeaderCount) {
+            fail("Too many header fields");
+            return;
+        }
+        if (line[0] == ' ' || line[0] == '\t') {
+            /* Zeilenfortsetzung (obs-fold) ist seit RFC 7230 nicht mehr zulaessig */
+            fail("Obsolete line folding");
+            return;
+        }
+
+        int colon = indexOf((byte) ':', 0);
+        if (colon <= 0) {
+            fail("Malformed header field");
+            return;
+        }
+        for (int i = 0; i < colon; i++) {
+            if (line[i] <= ' ' || line[i] >= 0x7f) {
+                fail("Malformed header field name");
+                return;
+            }
+        }
+
+        int valueStart = colon + 1;
+        int valueEnd = lineLength;
+        while (valueStart < valueEnd && (line[valueStart] == ' ' || line[valueStart] == '\t')) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && (line[valueEnd - 1] == ' ' || line[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+
+        String name = headerName(colon);
+        String value = ascii(valueStart, valueEnd);
+        String previous = headers.get(name);
+        headers.put(name, previous == null ? value : previous + ", " + value);
+    }
+
+    /*
+     * Nach dem Header-Block: Rahmung des Bodies bestimmen. Transfer-Encoding und Content-Length
+     * zugleich werden abgelehnt, da Server und vorgeschaltete Proxys die Grenze sonst verschieden
+     * verstehen koennten (Request Smuggling).
+     */
+    private void startBody() {
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                fail("Both Transfer-Encoding and Content-Length");
+            } else if (!transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                fail("Unsupported Transfer-Encoding");
+            } else {
+                createBody();
+                state = State.CHUNK_SIZE;
+            }
+            return;
+        }
+        if (contentLength == null) {
+            state = State.COMPLETE;
+            return;
+        }
+        long length;
+        try {
+            length = Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        if (length < 0) {
+            fail("Invalid Content-Length");
+        } else if (length > maxBodySize) {
+            fail(HTTPResponse.HTTPStatusCode.PAYLOAD_TOO_LARGE, "Request body too large");
+        } else if (length == 0) {
+            state = State.COMPLETE;
+        } else {
+            createBody();
+            bodyRemaining = length;
+            state = State.BODY;
+        }
+    }
+
+    private void createBody() {
+        body = new HTTPRequestBody();
+        String expect = headers.get("Expect");
+        continueExpected = expect != null && expect.equalsIgnoreCase("100-continue") && HTTP_1_1.equals(version);
+    }
+
+    // Kopiert die Bytes des Bodies bzw. des aktuellen Chunks blockweise (nicht byteweise) in den HTTPRequestBody
+    private void readBody(ByteBuffer buffer) {
+        int count = (int) Math.min(buffer.remaining(), bodyRemaining);
+        ByteBuffer slice = buffer.slice(buffer.position(), count);
+        try {
+            body.append(slice);
+        } catch (IOException e) {
+            fail(HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, "Request body could not be stored: " + e.getMessage());
+            return;
+        }
+        buffer.position(buffer.position() + count);
+        bytesConsumed += count;
+        bodyRemaining -= count;
+        if (bodyRemaining == 0) {
+            state = state == State.BODY ? State.COMPLETE : State.CHUNK_DATA_END;
+        }
+    }
+
+    // Chunk-Groesse: HEX [";" Erweiterungen]; 0 beendet die Daten, es folgen Trailer
+    private void parseChunkSize() {
+        int end = indexOf((byte) ';', 0);
+        if (end < 0) {
+            end = lineLength;
+        }
+        while (end > 0 && (line[end - 1] == ' ' || line[end - 1] == '\t')) {
+            end--;
+        }
+        if (end == 0 || end > 15) {
+            fail("Malformed chunk size");
+            return;
+        }
+        long size = 0;
+        for (int i = 0; i < end; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                fail("Malformed chunk size");
+                return;
+            }
+            size = size * 16 + digit;
+        }
+        if (body.length() + size > maxBodySize) {
+            fail(HTTPResponse.HTTPStatusCode.PAYLOAD_TOO_LARGE, "Request body too large");
+        } else if (size == 0) {
+            state = State.TRAILERS;
+        } else {
+            bodyRemaining = size;
+            state = State.CHUNK_DATA;
+        }
+    }
+
+    // Trailer-Felder nach dem letzten Chunk werden nur auf ihre Groesse geprueft und verworfen
+    private void parseTrailerLine() {
+        if (lineLength == 0) {
+            state = State.COMPLETE;
+            return;
+        }
+        headerBytes += lineLength + 2;
+    }
+
+    private HTTPRequest.HTTPMethod parseMethod(int end) {
+        if (matches(0, end, "GET")) {
+            return HTTPRequest.HTTPMethod.GET;
+        } else if (matches(0, end, "HEAD")) {
+            return HTTPRequest.HTTPMethod.HEAD;
+        } else if (matches(0, end, "POST")) {
+            return HTTPRequest.HTTPMethod.POST;
+        }
+        return null;
+    }
+
+    private String parseVersion(int start, int end) {
+        if (matches(start, end, HTTP_1_1)) {
+            return HTTP_1_1;
+        } else if (matches(start, end, HTTP_1_0)) {
+            return HTTP_1_0;
+        } else if (end - start > 5 && matches(start, start + 5, "HTTP/")) {
+            return ascii(start, end);
+        }
+        return null;
+    }
+
+    // Liefert fuer bekannte Header die kanonische (gemeinsam genutzte) Schreibweise
+    private String headerName(int length) {
+        if (length < KNOWN_HEADERS.length && KNOWN_HEADERS[length] != null) {
+            for (String known : KNOWN_HEADERS[length]) {
+                if (equalsIgnoreCase(known, length)) {
+                    return known;
+                }
+            }
+        }
+        return ascii(0, length);
+    }
+
+    private boolean equalsIgnoreCase(String known, int length) {
+        for (int i = 0; i < length; i++) {
+            int a = line[i] | 0x20;
+            int b = known.charAt(i) | 0x20;
+            if (a != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (line[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < lineLength; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String ascii(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Decodiert %XX-Folgen (UTF-8, '+' bleibt erhalten) und entfernt leere, "."- und ".."-Segmente, damit
+     * Routing, Caches und Dateizugriff nur einen kanonischen Pfad sehen. Liefert null bei ungueltigen
+     * Escapes, NUL oder Backslash sowie bei ".."-Segmenten, die ueber die Wurzel hinausfuehren wuerden.
+     * Ein Ziel in absoluter Form (http://host/pfad) wird auf den Pfad reduziert.
+     */
+    static String normalizePath(String target) {
+        String raw = target;
+        int scheme = raw.indexOf("://");
+        if (scheme > 0 && raw.charAt(0) != '/') {
+            int slash = raw.indexOf('/', scheme + 3);
+            raw = slash < 0 ? "/" : raw.substring(slash);
+        }
+        if (raw.isEmpty() || raw.charAt(0) != '/') {
+            return null;
+        }
+
+        /* Schneller Weg: reiner ASCII-Pfad ohne Escapes, doppelte Schraegstriche und Punktsegmente */
+        boolean plain = true;
+        for (int i = 0; i < raw.length() && plain; i++) {
+            char c = raw.charAt(i);
+            plain = c != '%' && c != '\\' && c > ' ' && c < 0x7f
+                    && !(c == '/' && i + 1 < raw.length() && (raw.charAt(i + 1) == '/' || raw.charAt(i + 1) == '.'));
+        }
+        if (plain) {
+            return raw;
+        }
+
+        byte[] bytes = new byte[raw.length()];
+        int length = 0;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '%') {
+                int high = i + 2 < raw.length() ? Character.digit(raw.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(raw.charAt(i + 2), 16);
+                if (low < 0) {
+                    return null;
+                }
+                bytes[length++] = (byte) (high << 4 | low);
+                i += 2;
+            } else {
+                bytes[length++] = (byte) c;
+            }
+        }
+        String decoded;
+        try {
+            decoded = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, 0, length)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        if (decoded.indexOf('\0') >= 0 || decoded.indexOf('\\') >= 0) {
+            return null;
+        }
+
+        Deque<String> segments = new ArrayDeque<String>();
+        for (String segment : decoded.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.removeLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        StringBuilder normalized = new StringBuilder(decoded.length());
+        for (String segment : segments) {
+            normalized.append('/').append(segment);
+        }
+        /* Abschliessender Schraegstrich (Verzeichnis) bleibt erhalten */
+        if (normalized.length() == 0 || decoded.endsWith("/") || decoded.endsWith("/.") || decoded.endsWith("/..")) {
+            normalized.append('/');
+        }
+        return normalized.toString();
+    }
+
+    private void fail(String message) {
+        fail(HTTPResponse.HTTPStatusCode.BAD_REQUEST, message);
+    }
+
+    private void fail(HTTPResponse.HTTPStatusCode status, String message) {
+        state = State.ERROR;
+        errorStatus = status;
+        errorMessage = message;
+        discardBody();
+    }
+}
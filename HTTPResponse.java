@@ -1,13 +1,30 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Map;
+import java.util.function.LongConsumer;
 
 public class HTTPResponse<T> extends HTTPMessage<T> {
     public enum HTTPStatusCode {
         OK(200, "OK"),
+        PARTIAL_CONTENT(206, "Partial Content"),
+        NOT_MODIFIED(304, "Not Modified"),
         BAD_REQUEST(400, "Bad Request"),
+        FORBIDDEN(403, "Forbidden"),
         NOT_FOUND(404, "Not Found"),
+        METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+        NOT_ACCEPTABLE(406, "Not Acceptable"),
+        REQUEST_TIMEOUT(408, "Request Timeout"),
+        PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+        RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
         INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
-        NOT_ACCEPTABLE(406, "Not Acceptable");
+        SERVICE_UNAVAILABLE(503, "Service Unavailable");
 
         private final int code;
         private final String message;
@@ -25,6 +42,119 @@ public class HTTPResponse<T> extends HTTPMessage<T> {
             return message;
         }
     }
+
+    /*
+     * Body, der nicht im Speicher liegt, sondern beim Senden direkt aus einer Datei
+     * uebertragen wird (FileChannel.transferTo, auf Sockets als sendfile).
+     * Der Speicherbedarf je Anfrage ist damit unabhaengig von der Dateigroesse.
+     */
+    public static class FileBody {
+        private static final long TRANSFER_SLICE = 1024 * 1024;
+
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        public FileBody(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public FileChannel open() throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        // Uebertraegt den gesamten Bereich blockierend in den Zielkanal
+        public void transferTo(WritableByteChannel target) throws IOException {
+            transferTo(target, transferred -> {
+            });
+        }
+
+        /*
+         * Wie transferTo(target), aber in Abschnitten von hoechstens TRANSFER_SLICE Bytes; nach jedem
+         * Abschnitt wird progress mit der Zahl der uebertragenen Bytes aufgerufen (z.B. fuer einen
+         * Schreib-Timeout ohne Fortschritt).
+         */
+        public void transferTo(WritableByteChannel target, LongConsumer progress) throws IOException {
+            try (FileChannel channel = open()) {
+                long position = offset;
+                long end = offset + length;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, Math.min(end - position, TRANSFER_SLICE), target);
+                    if (transferred <= 0 && position >= channel.size()) {
+                        throw new IOException("File truncated while sending: " + file);
+                    }
+                    position += transferred;
+                    progress.accept(transferred);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<" + length + " bytes from " + file + ">";
+        }
+    }
+
+    /*
+     * Body aus mehreren Teilen (z.B. multipart/byteranges), die nacheinander gesendet werden.
+     * Jeder Teil ist ein ByteBuffer oder ein FileBody, sodass Dateiausschnitte weiterhin
+     * direkt von der Platte uebertragen werden.
+     */
+    public static class MultipartBody {
+        private final List<Object> parts;
+        private final long length;
+
+        public MultipartBody(List<Object> parts) {
+            this.parts = parts;
+            long total = 0;
+            for (Object part : parts) {
+                total += part instanceof FileBody ? ((FileBody) part).getLength() : ((ByteBuffer) part).remaining();
+            }
+            this.length = total;
+        }
+
+        public List<Object> getParts() {
+            return parts;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "<" + length + " bytes in " + parts.size() + " parts>";
+        }
+    }
+
+    /*
+     * Body, der erst waehrend des Sendens schrittweise erzeugt wird. Der Server holt die Daten
+     * blockweise ab (wie bei einem blockierenden ReadableByteChannel: mindestens ein Byte oder -1
+     * am Ende), sodass auch die NIO-Engine nur so viel erzeugen laesst, wie der Socket aufnimmt.
+     * Unter HTTP/1.1 wird er chunked gesendet, unter HTTP/1.0 vorher gepuffert und mit Content-Length.
+     */
+    public interface StreamingBody extends Closeable {
+        int read(ByteBuffer buffer) throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
     private HTTPStatusCode statusCode;
 
     public HTTPResponse(String httpVersion, HTTPStatusCode statusCode, Map<String, String> headers, T body) {
@@ -36,6 +166,10 @@ public class HTTPResponse<T> extends HTTPMessage<T> {
         return statusCode.code;
     }
 
+    public HTTPStatusCode getStatus() {
+        return statusCode;
+    }
+
     public void setStatusCode(HTTPStatusCode statusCode) {
         this.statusCode = statusCode;
     }
@@ -0,0 +1,350 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * HTTPResponseEncoder.java
+ *
+ * Version 1.0
+ * Zweck: Serialisiert Statuszeile, Header und kleine Bodies einer HTTPResponse in einen einzigen
+ *        wiederverwendbaren Puffer aus einem Pool, damit die Antwort mit einem (gathering) write
+ *        gesendet werden kann. Statuszeilen und konstante Header werden einmalig vorcodiert,
+ *        die Date-Zeile einmal pro Sekunde (HTTPClock).
+ */
+class HTTPResponseEncoder {
+    /* Groesse der Pool-Puffer, Anzahl vorgehaltener Puffer */
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int POOL_SIZE = 256;
+
+    /* Bodies bis zu dieser Groesse werden in den Kopfpuffer kopiert, groessere separat gesendet */
+    private static final int INLINE_BODY_LIMIT = 8 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_SEPARATOR = {':', ' '};
+
+    /* Platz vor den Nutzdaten eines Chunks fuer die hexadezimale Laenge und CRLF; abschliessender Null-Chunk */
+    private static final int CHUNK_HEADER_SPACE = 10;
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    /*
+     * Kanal, der jeden Sendefortschritt meldet (Schreib-Timeout der blockierenden Betriebsarten).
+     * Dateien werden an ihm vorbei direkt in target() uebertragen und melden den Fortschritt abschnittsweise.
+     */
+    interface ProgressChannel extends WritableByteChannel {
+        WritableByteChannel target();
+
+        // bytes: direkt in target() uebertragene Bytes (transferTo)
+        void progress(long bytes);
+    }
+
+    /* Zwischenantwort auf "Expect: 100-continue" */
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ArrayBlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE);
+
+    /* Vorcodierte Statuszeilen fuer HTTPServer.HTTP_VERSION, Index = ordinal() */
+    private static final byte[][] STATUS_LINES;
+
+    /* Vorcodierte vollstaendige Headerzeilen fuer haeufige konstante Werte: Name -> Wert -> Bytes */
+    private static final Map<String, Map<String, byte[]>> CONSTANT_HEADERS = new HashMap<String, Map<String, byte[]>>();
+
+    static {
+        HTTPResponse.HTTPStatusCode[] codes = HTTPResponse.HTTPStatusCode.values();
+        STATUS_LINES = new byte[codes.length][];
+        for (HTTPResponse.HTTPStatusCode code : codes) {
+            STATUS_LINES[code.ordinal()] = (HTTPServer.HTTP_VERSION + " " + code.getCode() + " " + code.getMessage() + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+
+        preEncode("Server", HTTPServer.SERVER_NAME);
+        preEncode("Content-Type", "text/html", "text/plain", "image/jpeg", "image/gif", "image/x-icon", "application/pdf", "application/json");
+        preEncode("Connection", "close", "keep-alive");
+    }
+
+    private static void preEncode(String name, String... values) {
+        Map<String, byte[]> lines = new HashMap<String, byte[]>();
+        for (String value : values) {
+            lines.put(value, (name + ": " + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        CONSTANT_HEADERS.put(name, lines);
+    }
+
+    static ByteBuffer continueResponse() {
+        return ByteBuffer.wrap(CONTINUE);
+    }
+
+    // Holt einen Puffer aus dem Pool (oder legt einen neuen an, wenn der Pool leer ist)
+    static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    // Gibt einen Puffer an den Pool zurueck; uebergrosse Ausnahmepuffer und fremde Sichten (z.B. auf den Cache) werden verworfen
+    static void releaseBuffer(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && !buffer.isReadOnly() && buffer.capacity() == BUFFER_SIZE) {
+            buffer.clear();
+            POOL.offer(buffer);
+        }
+    }
+
+    /*
+     * Codiert Statuszeile, Header und einen kleinen Body in einen Pool-Puffer und liefert ihn
+     * lesebereit (geflippt). Der Aufrufer gibt ihn nach dem Senden mit releaseBuffer zurueck.
+     */
+    static ByteBuffer encode(HTTPResponse<?> response) {
+        ByteBuffer buffer = acquireBuffer();
+        if (!encodeInto(response, buffer)) {
+            /* Extrem grosse Header: einmalig einen passenden Puffer anlegen */
+            releaseBuffer(buffer);
+            buffer = ByteBuffer.allocate(encodedHeadLength(response) + INLINE_BODY_LIMIT);
+            encodeInto(response, buffer);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Liefert den Body, der nicht im Kopfpuffer steckt und separat gesendet werden muss (sonst null)
+    static ByteBuffer separateBody(HTTPResponse<?> response) {
+        Object body = response.Body();
+        if (body instanceof ByteBuffer && ((ByteBuffer) body).remaining() > INLINE_BODY_LIMIT) {
+            return (ByteBuffer) body;
+        }
+        if (body instanceof byte[] && ((byte[]) body).length > INLINE_BODY_LIMIT) {
+            return ByteBuffer.wrap((byte[]) body);
+        }
+        if (body instanceof String && !isInlineString((String) body)) {
+            return ByteBuffer.wrap(((String) body).getBytes(StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    // Sendet die Antwort blockierend: Kopf + Body per gathering write, Datei-Bodies und -Ausschnitte per transferTo
+    static void write(HTTPResponse<?> response, WritableByteChannel channel) throws IOException {
+        ByteBuffer head = encode(response);
+        try {
+            ByteBuffer body = separateBody(response);
+            if (body == null) {
+                writeFully(channel, head);
+            } else if (channel instanceof GatheringByteChannel) {
+                ByteBuffer[] buffers = {head, body};
+                while (body.hasRemaining()) {
+                    ((GatheringByteChannel) channel).write(buffers);
+                }
+            } else {
+                writeFully(channel, head);
+                writeFully(channel, body);
+            }
+
+            if (response.Body() instanceof HTTPResponse.FileBody) {
+                transfer((HTTPResponse.FileBody) response.Body(), channel);
+            } else if (response.Body() instanceof HTTPResponse.StreamingBody) {
+                writeStreamingBody(response, channel);
+            } else if (response.Body() instanceof HTTPResponse.MultipartBody) {
+                for (Object part : ((HTTPResponse.MultipartBody) response.Body()).getParts()) {
+                    if (part instanceof HTTPResponse.FileBody) {
+                        transfer((HTTPResponse.FileBody) part, channel);
+                    } else {
+                        writeFully(channel, ((ByteBuffer) part).duplicate());
+                    }
+                }
+            }
+        } finally {
+            releaseBuffer(head);
+        }
+    }
+
+    // Dateiinhalt per transferTo; bei einem ProgressChannel direkt in dessen Zielkanal, damit sendfile moeglich bleibt
+    private static void transfer(HTTPResponse.FileBody body, WritableByteChannel channel) throws IOException {
+        if (channel instanceof ProgressChannel) {
+            ProgressChannel progressChannel = (ProgressChannel) channel;
+            body.transferTo(progressChannel.target(), progressChannel::progress);
+        } else {
+            body.transferTo(channel);
+        }
+    }
+
+    // Sendet einen StreamingBody blockweise ueber einen Pool-Puffer, bei Transfer-Encoding: chunked als Chunks
+    private static void writeStreamingBody(HTTPResponse<?> response, WritableByteChannel channel) throws IOException {
+        boolean chunked = isChunked(response);
+        ByteBuffer buffer = acquireBuffer();
+        try (HTTPResponse.StreamingBody body = (HTTPResponse.StreamingBody) response.Body()) {
+            boolean more;
+            do {
+                more = nextChunk(body, buffer, chunked);
+                writeFully(channel, buffer);
+            } while (more);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    static boolean isChunked(HTTPResponse<?> response) {
+        return "chunked".equals(response.getHeader("Transfer-Encoding"));
+    }
+
+    /*
+     * Fuellt den (Pool-)Puffer mit den naechsten Bytes des Bodies und liefert ihn lesebereit, bei
+     * chunked mit Chunk-Rahmen. Liefert false, wenn der Body zu Ende ist; der Puffer enthaelt dann
+     * ggf. den letzten Daten-Chunk und den abschliessenden Null-Chunk.
+     */
+    static boolean nextChunk(HTTPResponse.StreamingBody body, ByteBuffer buffer, boolean chunked) throws IOException {
+        int start = chunked ? CHUNK_HEADER_SPACE : 0;
+        buffer.clear();
+        buffer.position(start);
+        buffer.limit(buffer.capacity() - (chunked ? CRLF.length + LAST_CHUNK.length : 0));
+
+        boolean finished = false;
+        while (buffer.hasRemaining()) {
+            if (body.read(buffer) < 0) {
+                finished = true;
+                break;
+            }
+        }
+        int dataEnd = buffer.position();
+        int count = dataEnd - start;
+        buffer.limit(buffer.capacity());
+
+        if (chunked) {
+            if (count > 0) {
+                /* Laenge rechtsbuendig in den reservierten Platz vor die Nutzdaten schreiben */
+                String size = Integer.toHexString(count);
+                start -= size.length() + CRLF.length;
+                buffer.position(start);
+                putAscii(buffer, size);
+                buffer.put(CRLF);
+                buffer.position(dataEnd);
+                buffer.put(CRLF);
+            }
+            if (finished) {
+                buffer.put(LAST_CHUNK);
+            }
+        }
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        return !finished;
+    }
+
+    // Liest einen StreamingBody vollstaendig (fuer Clients, die kein chunked verstehen)
+    static ByteBuffer readFully(HTTPResponse.StreamingBody body) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (body) {
+            while (body.read(buffer) >= 0) {
+                content.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        return ByteBuffer.wrap(content.toByteArray());
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Anzahl Bytes eines Strings in UTF-8, ohne ihn zu codieren
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Schreibt Kopf und ggf. Body in den Puffer; false, wenn der Platz nicht reicht
+    private static boolean encodeInto(HTTPResponse<?> response, ByteBuffer buffer) {
+        if (buffer.remaining() < encodedHeadLength(response)) {
+            return false;
+        }
+
+        HTTPResponse.HTTPStatusCode status = response.getStatus();
+        if (HTTPServer.HTTP_VERSION.equals(response.getHttpVersion())) {
+            buffer.put(STATUS_LINES[status.ordinal()]);
+        } else {
+            putAscii(buffer, response.getHttpVersion());
+            buffer.put((byte) ' ');
+            putAscii(buffer, String.valueOf(status.getCode()));
+            buffer.put((byte) ' ');
+            putAscii(buffer, status.getMessage());
+            buffer.put(CRLF);
+        }
+
+        for (Map.Entry<String, String> header : response.headerMap().entrySet()) {
+            Map<String, byte[]> constants = CONSTANT_HEADERS.get(header.getKey());
+            byte[] line = constants != null ? constants.get(header.getValue()) : dateHeaderLine(header);
+            if (line != null) {
+                buffer.put(line);
+            } else {
+                putAscii(buffer, header.getKey());
+                buffer.put(HEADER_SEPARATOR);
+                putAscii(buffer, header.getValue());
+                buffer.put(CRLF);
+            }
+        }
+        buffer.put(CRLF);
+
+        Object body = response.Body();
+        if (body instanceof String && isInlineString((String) body)) {
+            putAscii(buffer, (String) body);
+        } else if (body instanceof byte[] && ((byte[]) body).length <= INLINE_BODY_LIMIT) {
+            buffer.put((byte[]) body);
+        } else if (body instanceof ByteBuffer && ((ByteBuffer) body).remaining() <= INLINE_BODY_LIMIT) {
+            buffer.put(((ByteBuffer) body).duplicate());
+        }
+        return true;
+    }
+
+    // Vom HTTPClock vorcodierte Date-Zeile, solange der Header den Wert der aktuellen Sekunde traegt
+    private static byte[] dateHeaderLine(Map.Entry<String, String> header) {
+        if (!"Date".equals(header.getKey())) {
+            return null;
+        }
+        HTTPClock.Tick tick = HTTPClock.current();
+        return tick.dateHeader.equals(header.getValue()) ? tick.dateHeaderLine : null;
+    }
+
+    // Obergrenze fuer Statuszeile + Header + eingebetteten Body
+    private static int encodedHeadLength(HTTPResponse<?> response) {
+        int length = response.getHttpVersion().length() + response.getStatusMessage().length() + 8;
+        for (Map.Entry<String, String> header : response.headerMap().entrySet()) {
+            length += header.getKey().length() + header.getValue().length() + 4;
+        }
+        return length + 2 + INLINE_BODY_LIMIT;
+    }
+
+    // Kleine reine ASCII-Strings koennen ohne Umweg ueber getBytes in den Puffer kopiert werden
+    private static boolean isInlineString(String s) {
+        if (s.length() > INLINE_BODY_LIMIT) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putAscii(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+}
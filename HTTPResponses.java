@@ -0,0 +1,43 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/*
+ * HTTPResponses.java
+ *
+ * Version 1.0
+ * Zweck: Hilfsmethoden fuer Handler: einfache Textantworten und die Header, die jede Antwort
+ *        des Servers traegt (Date, Server).
+ */
+public final class HTTPResponses {
+    private HTTPResponses() {
+    }
+
+    // Antwort mit einem Text-Body (text/plain) und den Standard-Headern
+    public static HTTPResponse<String> text(HTTPResponse.HTTPStatusCode status, String body) {
+        return text(status, body, "text/plain");
+    }
+
+    public static HTTPResponse<String> text(HTTPResponse.HTTPStatusCode status, String body, String contentType) {
+        HTTPResponse<String> response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, status, new HashMap<String, String>(), body);
+        response.setHeader("Content-Type", contentType);
+
+        return withStandardHeaders(response);
+    }
+
+    // Antwort mit einem vorcodierten Body (z.B. vom HTTPClock), Content-Length wird direkt gesetzt
+    public static HTTPResponse<ByteBuffer> bytes(HTTPResponse.HTTPStatusCode status, ByteBuffer body, String contentType) {
+        HTTPResponse<ByteBuffer> response = new HTTPResponse<ByteBuffer>(HTTPServer.HTTP_VERSION, status, new HashMap<String, String>(), body);
+        response.setHeader("Content-Type", contentType);
+        response.setHeader("Content-Length", String.valueOf(body.remaining()));
+
+        return withStandardHeaders(response);
+    }
+
+    // Date (IMF-fixdate der aktuellen Sekunde) und Server
+    public static <T> HTTPResponse<T> withStandardHeaders(HTTPResponse<T> response) {
+        response.setHeader("Date", HTTPClock.dateHeader());
+        response.setHeader("Server", HTTPServer.SERVER_NAME);
+
+        return response;
+    }
+}
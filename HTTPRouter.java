@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * HTTPRouter.java
+ *
+ * Version 1.0
+ * Zweck: Ordnet Anfragen anhand von Methode und Pfad einem HTTPHandler zu. Unterstuetzt
+ *        - exakte Pfade ("/time"): eine Hash-Suche,
+ *        - Pfadparameter ("/user/{id}") und Praefixe ("/static/*"): ein Trie mit einem Knoten je
+ *          Pfadsegment, die Kosten haengen also nur von der Pfadtiefe ab, nicht von der Routenzahl.
+ *        Ohne Routen mit Parametern oder Praefix entfaellt der Trie, Anfragen an den Fallback (z.B. alle
+ *        statischen Dateien) kosten dann nur die Hash-Suche und erzeugen keine Objekte.
+ *        Je Route gibt es eine Tabelle Methode -> Handler; passt der Pfad, aber nicht die Methode,
+ *        folgt 405. HEAD faellt auf den GET-Handler zurueck. Pfade ohne Route gehen an den Fallback (z.B. den HTTPStaticFileHandler).
+ *        Filter werden beim Registrieren einmalig zu einer Kette vor dem Routing verbunden.
+ */
+public class HTTPRouter implements HTTPHandler {
+    private static final HTTPRequest.HTTPMethod[] METHODS = HTTPRequest.HTTPMethod.values();
+
+    /* Handler einer Route je Methode (Index = ordinal()) */
+    private static class Route {
+        final String pattern;
+        final HTTPHandler[] handlers = new HTTPHandler[METHODS.length];
+
+        Route(String pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /* Knoten des Tries fuer Routen mit Parametern oder Praefix */
+    private static class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        Node parameter;
+        String parameterName;
+        /* Route, die genau an diesem Knoten endet bzw. alle tieferen Pfade umfasst ("/*") */
+        Route route;
+        Route prefixRoute;
+    }
+
+    private final Map<String, Route> exactRoutes = new HashMap<String, Route>();
+    private final Node root = new Node();
+    /* Wird beim ersten Muster mit Parameter oder Praefix gesetzt */
+    private boolean hasPatternRoutes = false;
+    private final List<HTTPFilter> filters = new ArrayList<HTTPFilter>();
+    private HTTPHandler fallback = request -> HTTPResponses.text(HTTPResponse.HTTPStatusCode.NOT_FOUND, "404 - Not found!");
+    /* true, sobald fallback() aufgerufen wurde */
+    private boolean fallbackSet = false;
+
+    /* Vorab verbundene Filterkette, an deren Ende das eigentliche Routing steht */
+    private volatile HTTPHandler chain = this::route;
+
+    public HTTPRouter get(String pattern, HTTPHandler handler) {
+        return add(HTTPRequest.HTTPMethod.GET, pattern, handler);
+    }
+
+    public HTTPRouter head(String pattern, HTTPHandler handler) {
+        return add(HTTPRequest.HTTPMethod.HEAD, pattern, handler);
+    }
+
+    public HTTPRouter post(String pattern, HTTPHandler handler) {
+        return add(HTTPRequest.HTTPMethod.POST, pattern, handler);
+    }
+
+    /*
+     * Registriert einen Handler fuer Methode und Muster. Muster: exakt ("/date"), mit Parametern
+     * ("/files/{name}") oder mit Praefix ("/static/*", passt auf alle Pfade darunter).
+     */
+    public synchronized HTTPRouter add(HTTPRequest.HTTPMethod method, String pattern, HTTPHandler handler) {
+        routeFor(pattern).handlers[method.ordinal()] = handler;
+        return this;
+    }
+
+    // Wie add, laesst einen bereits fuer Methode und Muster registrierten Handler aber unveraendert
+    public synchronized HTTPRouter addIfAbsent(HTTPRequest.HTTPMethod method, String pattern, HTTPHandler handler) {
+        Route route = routeFor(pattern);
+        if (route.handlers[method.ordinal()] == null) {
+            route.handlers[method.ordinal()] = handler;
+        }
+        return this;
+    }
+
+    // Handler fuer alle Pfade ohne passende Route
+    public synchronized HTTPRouter fallback(HTTPHandler handler) {
+        this.fallback = handler;
+        this.fallbackSet = true;
+        return this;
+    }
+
+    // Setzt den Fallback nur, wenn noch keiner gesetzt wurde
+    public synchronized HTTPRouter fallbackIfAbsent(HTTPHandler handler) {
+        return fallbackSet ? this : fallback(handler);
+    }
+
+    // Haengt einen Filter an; Filter laufen in der Reihenfolge ihrer Registrierung
+    public synchronized HTTPRouter filter(HTTPFilter filter) {
+        filters.add(filter);
+        return link();
+    }
+
+    // Stellt einen Filter vor alle bereits registrierten
+    public synchronized HTTPRouter filterFirst(HTTPFilter filter) {
+        filters.add(0, filter);
+        return link();
+    }
+
+    private Route routeFor(String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+        if (pattern.indexOf('{') < 0 && !pattern.endsWith("/*")) {
+            return exactRoutes.computeIfAbsent(pattern, Route::new);
+        }
+        return insert(pattern);
+    }
+
+    // Verbindet die Filter neu zu einer Kette vor dem Routing
+    private HTTPRouter link() {
+        HTTPHandler next = this::route;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            HTTPFilter current = filters.get(i);
+            HTTPHandler downstream = next;
+            next = request -> current.filter(request, downstream);
+        }
+        chain = next;
+        return this;
+    }
+
+    @Override
+    public HTTPResponse<?> handle(HTTPRequest<?> request) throws IOException {
+        return chain.handle(request);
+    }
+
+    private Route insert(String pattern) {
+        hasPatternRoutes = true;
+        Node node = root;
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("*") && i == segments.length - 1) {
+                if (node.prefixRoute == null) {
+                    node.prefixRoute = new Route(pattern);
+                }
+                return node.prefixRoute;
+            }
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.parameter == null) {
+                    node.parameter = new Node();
+                    node.parameterName = name;
+                } else if (!name.equals(node.parameterName)) {
+                    throw new IllegalArgumentException("Conflicting parameter {" + name + "} in " + pattern);
+                }
+                node = node.parameter;
+            } else {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        if (node.route == null) {
+            node.route = new Route(pattern);
+        }
+        return node.route;
+    }
+
+    // Eigentliches Routing: Hash-Suche, dann Trie, sonst Fallback
+    private HTTPResponse<?> route(HTTPRequest<?> request) throws IOException {
+        String path = request.getPath();
+        Route route = exactRoutes.get(path);
+        if (route == null && hasPatternRoutes) {
+            route = match(root, path.substring(1).split("/", -1), 0, request);
+        }
+        if (route == null) {
+            return fallback.handle(request);
+        }
+
+        request.setRoute(route.pattern);
+        HTTPHandler handler = route.handlers[request.getMethod().ordinal()];
+        if (handler == null && request.getMethod() == HTTPRequest.HTTPMethod.HEAD) {
+            /* HEAD ohne eigenen Handler wie GET beantworten; den Body verwirft der Server beim Senden */
+            handler = route.handlers[HTTPRequest.HTTPMethod.GET.ordinal()];
+        }
+        if (handler == null) {
+            return methodNotAllowed(route);
+        }
+        return handler.handle(request);
+    }
+
+    /*
+     * Sucht im Trie; woertliche Segmente haben Vorrang vor Parametern, diese vor Praefix-Routen.
+     * Parameter werden erst auf dem Rueckweg eines Treffers in die Anfrage eingetragen.
+     */
+    private static Route match(Node node, String[] segments, int index, HTTPRequest<?> request) {
+        if (index == segments.length) {
+            return node.route != null ? node.route : node.prefixRoute;
+        }
+        Node child = node.children.get(segments[index]);
+        if (child != null) {
+            Route route = match(child, segments, index + 1, request);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.parameter != null && !segments[index].isEmpty()) {
+            Route route = match(node.parameter, segments, index + 1, request);
+            if (route != null) {
+                request.addPathParameter(node.parameterName, segments[index]);
+                return route;
+            }
+        }
+        return node.prefixRoute;
+    }
+
+    private static HTTPResponse<?> methodNotAllowed(Route route) {
+        StringBuilder allow = new StringBuilder();
+        for (HTTPRequest.HTTPMethod method : METHODS) {
+            boolean headViaGet = method == HTTPRequest.HTTPMethod.HEAD && route.handlers[HTTPRequest.HTTPMethod.GET.ordinal()] != null;
+            if (route.handlers[method.ordinal()] != null || headViaGet) {
+                allow.append(allow.length() > 0 ? ", " : "").append(method);
+            }
+        }
+        HTTPResponse<String> response = HTTPResponses.text(HTTPResponse.HTTPStatusCode.METHOD_NOT_ALLOWED, "Method not supported!");
+        response.setHeader("Allow", allow.toString());
+        return response;
+    }
+}
@@ -7,26 +7,236 @@
  *       Bei Dienstanfrage einen Arbeitsthread erzeugen, der eine HTTP-Anfrage bearbeitet
  */
 
+import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 
 public class HTTPServer {
-    public static final String HTTP_VERSION = "HTTP/1.0";
+    public static final String HTTP_VERSION = "HTTP/1.1";
+    public static final String SERVER_NAME = "Simple Java HTTP Server";
     public static final String STANDARD_ROOT_PATH = System.getProperty("user.dir") + "/html";
     /* HTTP-Server, der Verbindungsanfragen entgegennimmt */
 
-    /* Semaphore begrenzt die Anzahl parallel laufender Worker-Threads  */
-    public Semaphore workerThreadsSem;
+    /* Standardwert fuer die maximale Anzahl gleichzeitig bearbeiteter Verbindungen */
+    public static final int DEFAULT_MAX_CONNECTIONS = 10;
+
+    /*
+     * Betriebsart: ein neuer Plattform-Thread je Verbindung, ein virtueller Thread je Verbindung,
+     * ein fester Pool von Plattform-Threads oder nicht-blockierende Ereignisschleifen (NIO)
+     */
+    public enum ServerMode {
+        THREAD_PER_CONNECTION,
+        VIRTUAL_THREADS,
+        THREAD_POOL,
+        NIO
+    }
+
+    /* Semaphore begrenzt die Anzahl gleichzeitig bearbeiteter Verbindungen (Zulassungsgrenze) */
+    public Semaphore admissionSem;
+
+    /* Zulassungsgrenze: maximale Anzahl gleichzeitig bearbeiteter Verbindungen */
+    public final int maxConnections;
 
     /* Portnummer */
     public final int serverPort;
 
-    /* Anzeige, ob der Server-Dienst weiterhin benoetigt wird */
-    public boolean serviceRequested = true;
+    /* Anzeige, ob der Server-Dienst weiterhin benoetigt wird (zum Beenden besser stop() aufrufen) */
+    public volatile boolean serviceRequested = true;
 
     public String rootPath;
 
+    /* Gewaehlte Betriebsart */
+    public final ServerMode mode;
+
+    /* Anzahl der Reactor-Threads im NIO-Betrieb */
+    public int reactorThreads = Runtime.getRuntime().availableProcessors();
+
+    /* Anzahl der Plattform-Threads im THREAD_POOL-Betrieb */
+    public int workerPoolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+    /*
+     * Cache fuer statische Dateien: Byte-Budget (0 = abgeschaltet), maximale Dateigroesse,
+     * Inhalt in direkten ByteBuffern (ausserhalb des Heaps) und Invalidierung per WatchService
+     */
+    public long contentCacheBytes = 64L * 1024 * 1024;
+    public long contentCacheMaxEntryBytes = 4L * 1024 * 1024;
+    public boolean contentCacheDirect = false;
+    public boolean contentCacheWatch = true;
+
+    /*
+     * Cache-Control-Header fuer statische Dateien je Dateiendung; Endungen ohne Eintrag erhalten
+     * defaultCacheControl (null = kein Header). HTML wird stets revalidiert, Bilder und PDFs einen Tag gecacht.
+     */
+    public final Map<String, String> cacheControl = new HashMap<String, String>(Map.of(
+            "html", "no-cache",
+            "jpg", "public, max-age=86400",
+            "gif", "public, max-age=86400",
+            "ico", "public, max-age=86400",
+            "pdf", "public, max-age=86400"));
+    public String defaultCacheControl = null;
+
+    /*
+     * Bediente Clients: der User-Agent muss einen dieser Teilstrings enthalten, sonst 406 (leer = alle
+     * Clients bedienen, z.B. fuer fremde Lastwerkzeuge). Der mitgelieferte HTTPLoadGenerator ist zugelassen.
+     */
+    public final Set<String> acceptedUserAgents = new HashSet<String>(Set.of("curl", "Firefox", "HTTPie", HTTPLoadGenerator.USER_AGENT_NAME));
+
+    /*
+     * Komprimierung (gzip/deflate nach Accept-Encoding) fuer Textformate: an/aus, Mindestgroesse
+     * generierter Bodies in Bytes und Stufe des Deflaters (1 = schnell ... 9 = klein)
+     */
+    public boolean compressionEnabled = true;
+    public int compressionMinSize = 256;
+    public int compressionLevel = 6;
+
+    /*
+     * Verzeichnislisten: Anzahl zwischengespeicherter Verzeichnisse (0 = jedes Mal neu lesen),
+     * Eintraege je Seite ohne bzw. hoechstens mit Query-Parameter limit. Invalidierung wie beim
+     * Datei-Cache ueber contentCacheWatch.
+     */
+    public int directoryIndexMaxDirectories = 1024;
+    public int directoryPageSize = 500;
+    public int directoryMaxPageSize = 10000;
+
+    /*
+     * Index aller Dateien unter rootPath mit per MappedByteBuffer eingeblendetem Inhalt (an/aus). Bei
+     * assetStorePreload werden alle Dateien schon beim Start mit assetStoreParallelism Threads eingeblendet
+     * und gelesen, sonst erst bei der ersten Anfrage. assetManifest (null = keins) erhaelt nach jedem
+     * Laden die Liste der Dateien; neu geladen wird bei Aenderungen, wenn contentCacheWatch gesetzt ist.
+     */
+    public boolean assetStoreEnabled = false;
+    public boolean assetStorePreload = true;
+    public int assetStoreParallelism = Runtime.getRuntime().availableProcessors();
+    public String assetManifest = null;
+
+    /* Werden beim Serverstart anhand der obigen Einstellungen erzeugt */
+    public HTTPContentCache contentCache;
+    public HTTPDirectoryIndex directoryIndex;
+    public HTTPAssetStore assetStore;
+
+    /* Asynchrones Protokoll (Diagnosemeldungen auf stderr, Access-Log auf stdout oder in eine Datei) */
+    public final HTTPLogger log = new HTTPLogger();
+
+    /* Laufzeitkennzahlen (Zaehler, Verbindungen, Latenzen), abrufbar ueber die Route /metrics */
+    public final HTTPServerMetrics metrics = new HTTPServerMetrics();
+
+    /*
+     * Zuordnung Methode + Pfad --> Handler. Routen und Filter koennen vor startServer() ergaenzt werden.
+     * startServer() registriert danach die eingebauten Routen (/time, /date, /metrics, /echo, /shutdown)
+     * und den HTTPStaticFileHandler als Fallback, jeweils nur wo noch nichts eingetragen ist; die Pruefung
+     * des User-Agents laeuft vor allen anderen Filtern.
+     */
+    public final HTTPRouter router = new HTTPRouter();
+    private boolean defaultRoutesRegistered = false;
+
+    /* Grenzen fuer eingehende Anfragen: Laenge der Anfragezeile, Gesamtgroesse und Anzahl der Header */
+    public int maxRequestLine = HTTPRequestParser.DEFAULT_MAX_REQUEST_LINE;
+    public int maxHeaderSize = HTTPRequestParser.DEFAULT_MAX_HEADER_SIZE;
+    public int maxHeaderCount = HTTPRequestParser.DEFAULT_MAX_HEADER_COUNT;
+
+    /* Groesste angenommene Anfrage-Bodies in Bytes (groessere --> 413); ab 16 KiB wird in eine temporaere Datei ausgelagert */
+    public long maxRequestBodySize = HTTPRequestParser.DEFAULT_MAX_BODY_SIZE;
+
+    /* Persistente Verbindungen: Leerlauf-Timeout in ms und maximale Anzahl Anfragen je Verbindung */
+    public int keepAliveTimeout = 5000;
+    public int maxKeepAliveRequests = 100;
+
+    /*
+     * Zulassung bei Ueberlast: Laenge der Kernel-Warteschlange des Server-Sockets, Anzahl angenommener
+     * Verbindungen, die auf eine freie Erlaubnis warten duerfen, und deren Wartezeit in ms. Wer darueber
+     * hinaus kommt oder zu lange wartet, erhaelt sofort 503. maxConnectionsPerIp begrenzt die gleichzeitigen
+     * (wartenden und bearbeiteten) Verbindungen einer IP-Adresse (0 = unbegrenzt).
+     */
+    public int acceptBacklog = 1024;
+    public int pendingConnections = 256;
+    public int admissionTimeout = 1000;
+    public int maxConnectionsPerIp = 0;
+
+    /*
+     * Timeouts in ms gegen langsame Clients (z.B. Slowloris): Zeit fuer Anfragezeile und Header ab dem
+     * ersten Byte, hoechste Pause zwischen zwei Lesevorgaengen innerhalb einer Anfrage (beide --> 408) und
+     * hoechste Dauer ohne Sendefortschritt einer Antwort (--> Verbindungsabbruch)
+     */
+    public int headerTimeout = 10000;
+    public int readTimeout = 10000;
+    public int writeTimeout = 30000;
+
+    /* Gleichzeitige Verbindungen je IP-Adresse fuer maxConnectionsPerIp (ueber alle Shards) */
+    final Map<InetAddress, Integer> connectionsPerIp = new ConcurrentHashMap<InetAddress, Integer>();
+
+    /*
+     * Anzahl der Shards der Verbindungsannahme: je Shard ein Acceptor-Thread mit eigenem Server-Socket
+     * (SO_REUSEPORT), eigener Zulassungswarteschlange und eigenen Arbeitsthreads bzw. Reactors. Ohne
+     * SO_REUSEPORT nimmt ein Acceptor an und verteilt reihum auf die Shards. 1 = ein Acceptor wie bisher.
+     */
+    public int acceptorShards = 1;
+
+    /* Laufende Arbeitsthreads der blockierenden Betriebsarten (fuer Schreib-Timeout und stop()) */
+    final Set<HTTPWorkerThread> workers = ConcurrentHashMap.newKeySet();
+
+    /* Frist in ms, die /shutdown laufenden Anfragen zum Abschluss laesst */
+    public int shutdownTimeout = 30000;
+
+    /* Shards bzw. Reactors des laufenden Servers; stop() schliesst bzw. leert sie */
+    private volatile HTTPListenerShard[] shards;
+    private volatile HTTPReactor[] reactors;
+
+    /* Ergebnis von stop(); startServer() kehrt erst zurueck, wenn stop() fertig ist */
+    private StopReport stopReport;
+    private volatile boolean stopping = false;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /* Ergebnis eines stop(): Verbindungen, die ihre Anfrage noch abschliessen konnten, untaetig geschlossene und abgebrochene */
+    public static final class StopReport {
+        private final int drained;
+        private final int idleClosed;
+        private final int aborted;
+        private final long millis;
+
+        StopReport(int drained, int idleClosed, int aborted, long millis) {
+            this.drained = drained;
+            this.idleClosed = idleClosed;
+            this.aborted = aborted;
+            this.millis = millis;
+        }
+
+        public int getDrained() {
+            return drained;
+        }
+
+        public int getIdleClosed() {
+            return idleClosed;
+        }
+
+        public int getAborted() {
+            return aborted;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return drained + " drained, " + idleClosed + " idle closed, " + aborted + " aborted in " + millis + " ms";
+        }
+    }
+
     /* Standardkonstruktor (Server-Port 80) */
     public HTTPServer() {
         this(80);
@@ -34,56 +244,423 @@ public class HTTPServer {
 
     /* Konrstruktor mit Parametern: Server-Port */
     public HTTPServer(int serverPort) {
-        this(serverPort, 10, STANDARD_ROOT_PATH);
+        this(serverPort, DEFAULT_MAX_CONNECTIONS, STANDARD_ROOT_PATH);
     }
 
     public HTTPServer(int serverPort, String roothPath) {
-        this(serverPort, 10, roothPath);
+        this(serverPort, DEFAULT_MAX_CONNECTIONS, roothPath);
     }
 
 
-    /* Konstruktor mit Parametern: Server-Port, Maximale Anzahl paralleler Worker-Threads*/
-    public HTTPServer(int serverPort, int maxThreads, String rootPath) {
+    /* Konstruktor mit Parametern: Server-Port, Maximale Anzahl paralleler Verbindungen */
+    public HTTPServer(int serverPort, int maxConnections, String rootPath) {
+        this(serverPort, maxConnections, rootPath, ServerMode.THREAD_PER_CONNECTION);
+    }
+
+    /* Konstruktor mit Parametern: Server-Port, Maximale Anzahl paralleler Verbindungen, Betriebsart */
+    public HTTPServer(int serverPort, int maxConnections, String rootPath, ServerMode mode) {
         this.serverPort = serverPort;
-        this.workerThreadsSem = new Semaphore(maxThreads);
+        this.maxConnections = maxConnections;
+        this.admissionSem = new Semaphore(maxConnections);
         this.rootPath = rootPath;
+        this.mode = mode;
+    }
+
+    /*
+     * Eingebaute Routen des Zeitservers und Pruefung des User-Agents. Erst beim Start registriert, da die
+     * Handler den Server referenzieren: aus dem Konstruktor heraus wuerde ein noch nicht vollstaendig
+     * initialisiertes Objekt (bzw. eine Unterklasse) weitergegeben.
+     */
+    private void registerDefaultRoutes() {
+        if (defaultRoutesRegistered) {
+            return;
+        }
+        defaultRoutesRegistered = true;
+        /* Nur Browser bzw. bekannte Kommandozeilen-Clients werden bedient (acceptedUserAgents) */
+        router.filterFirst((request, next) -> {
+            if (!isAcceptedUserAgent(request.getHeader("User-Agent"))) {
+                return HTTPResponses.text(HTTPResponse.HTTPStatusCode.NOT_ACCEPTABLE, "User-agent is not accepted!");
+            }
+            return next.handle(request);
+        });
+
+        /* RESTful API Zeitserver; die Bodies formatiert der HTTPClock einmal pro Sekunde vor */
+        router.addIfAbsent(HTTPRequest.HTTPMethod.GET, "/time", request -> HTTPResponses.bytes(HTTPResponse.HTTPStatusCode.OK, HTTPClock.timeBody(), "text/plain"));
+        router.addIfAbsent(HTTPRequest.HTTPMethod.GET, "/date", request -> HTTPResponses.bytes(HTTPResponse.HTTPStatusCode.OK, HTTPClock.dateBody(), "text/plain"));
+        router.addIfAbsent(HTTPRequest.HTTPMethod.GET, "/metrics", request -> HTTPResponses.text(HTTPResponse.HTTPStatusCode.OK, metrics.toPrometheus(this), "text/plain; version=0.0.4"));
+        /* Gibt den empfangenen Body unveraendert zurueck (Test von POST, Content-Length und chunked) */
+        router.addIfAbsent(HTTPRequest.HTTPMethod.POST, "/echo", request -> {
+            HTTPRequestBody body = (HTTPRequestBody) request.Body();
+            if (body == null) {
+                return HTTPResponses.text(HTTPResponse.HTTPStatusCode.OK, "");
+            }
+            String contentType = request.getHeader("Content-Type");
+            HTTPResponse<HTTPResponse.StreamingBody> response = new HTTPResponse<HTTPResponse.StreamingBody>(HTTP_VERSION,
+                    HTTPResponse.HTTPStatusCode.OK, new HashMap<String, String>(), body.content());
+            response.setHeader("Content-Type", contentType != null ? contentType : "application/octet-stream");
+            response.setHeader("Content-Length", String.valueOf(body.length()));
+            return HTTPResponses.withStandardHeaders(response);
+        });
+        router.addIfAbsent(HTTPRequest.HTTPMethod.GET, "/shutdown", request -> {
+            /* Eigener Thread: stop() wartet auf laufende Anfragen, also auch auf diese */
+            Thread.ofPlatform().name("HTTP Shutdown").start(() -> stop(Duration.ofMillis(shutdownTimeout)));
+            return HTTPResponses.text(HTTPResponse.HTTPStatusCode.OK, "Server is shutting down!");
+        });
+
+        router.fallbackIfAbsent(new HTTPStaticFileHandler(this));
+    }
+
+    private boolean isAcceptedUserAgent(String userAgent) {
+        if (acceptedUserAgents.isEmpty()) {
+            return true;
+        }
+        if (userAgent == null) {
+            return false;
+        }
+        for (String accepted : acceptedUserAgents) {
+            if (userAgent.contains(accepted)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void startServer() {
-        ServerSocket welcomeSocket; // TCP-Server-Socketklasse
-        Socket connectionSocket; // TCP-Standard-Socketklasse
+        registerDefaultRoutes();
+        createAssetStore();
+        createContentCache();
+        createDirectoryIndex();
+
+        if (mode == ServerMode.NIO) {
+            startNioServer();
+        } else {
+            startBlockingServer();
+        }
+
+        if (stopping) {
+            /* Auf das Ende des Abarbeitens warten, damit z.B. das Protokoll erst danach geschlossen wird */
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Beendet den Server geordnet: Der Server-Socket wird sofort geschlossen (neue Verbindungen werden
+     * abgewiesen), noch nicht zugelassene erhalten 503. Untaetige Keep-Alive-Verbindungen werden geschlossen,
+     * laufende Anfragen duerfen bis zur Frist fertig werden und erhalten "Connection: close"; was danach
+     * noch offen ist, wird abgebrochen. Kann aus jedem Thread aufgerufen werden (nicht aus einem Handler,
+     * da dieser selbst auf sein Ende warten wuerde); weitere Aufrufe liefern dasselbe Ergebnis.
+     */
+    public synchronized StopReport stop(Duration timeout) {
+        if (stopReport != null) {
+            return stopReport;
+        }
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        log.info("Stopping server, draining connections for up to " + timeout.toMillis() + " ms");
+        stopping = true;
+
+        HTTPReactor[] nioReactors = reactors;
+        if (nioReactors != null) {
+            for (HTTPReactor reactor : nioReactors) {
+                reactor.drain(deadline);
+            }
+        }
+        serviceRequested = false;
+        closeShards();
+
+        /*
+         * Blockierende Betriebsarten: untaetige Arbeitsthreads sofort beenden, die uebrigen bis zur Frist abwarten.
+         * Gezaehlt wird je Verbindung: untaetig geschlossen, nach ihrer Anfrage beendet (drained) oder abgebrochen.
+         */
+        Set<HTTPWorkerThread> idle = new HashSet<HTTPWorkerThread>();
+        Set<HTTPWorkerThread> busy = new HashSet<HTTPWorkerThread>();
+        int drained = 0;
+        while (true) {
+            for (HTTPWorkerThread worker : workers) {
+                /* Auch zwischen zwei Anfragen angekommene Verbindungen (die Antwort trug "Connection: close") */
+                if (idle.contains(worker)) {
+                    continue;
+                }
+                if (worker.closeIfIdle()) {
+                    idle.add(worker);
+                    busy.remove(worker);
+                } else {
+                    busy.add(worker);
+                }
+            }
+            for (Iterator<HTTPWorkerThread> it = busy.iterator(); it.hasNext(); ) {
+                if (!workers.contains(it.next())) {
+                    drained++;
+                    it.remove();
+                }
+            }
+            if (busy.isEmpty() || System.nanoTime() >= deadline) {
+                break;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int idleClosed = idle.size();
+        int aborted = busy.size();
+        for (HTTPWorkerThread worker : busy) {
+            worker.abort();
+        }
+
+        if (nioReactors != null) {
+            for (HTTPReactor reactor : nioReactors) {
+                try {
+                    /* Reactors halten die Frist selbst ein; danach schliessen sie nur noch ihre Verbindungen */
+                    reactor.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) + 1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                drained += reactor.getDrained();
+                idleClosed += reactor.getIdleClosed();
+                aborted += reactor.getAborted();
+            }
+        }
+
+        stopReport = new StopReport(drained, idleClosed, aborted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Server stopped: " + stopReport);
+        stopped.countDown();
+        return stopReport;
+    }
+
+    // Schliesst die Server-Sockets aller Shards und weist noch nicht zugelassene Verbindungen ab
+    private void closeShards() {
+        HTTPListenerShard[] current = shards;
+        if (current != null) {
+            for (HTTPListenerShard shard : current) {
+                shard.closeListener();
+                shard.closeAdmission();
+            }
+        }
+    }
+
+    // Liefert die Shards des laufenden Servers (leer vor dem Start), z.B. fuer die Kennzahlen je Shard
+    public HTTPListenerShard[] getShards() {
+        HTTPListenerShard[] current = shards;
+        return current != null ? current.clone() : new HTTPListenerShard[0];
+    }
+
+    private void createContentCache() {
+        if (contentCacheBytes <= 0) {
+            return;
+        }
+        contentCache = new HTTPContentCache(contentCacheBytes, contentCacheMaxEntryBytes, contentCacheDirect);
+        if (contentCacheWatch) {
+            try {
+                contentCache.watch(Paths.get(rootPath), log);
+            } catch (IOException e) {
+                /* Ohne WatchService wird stattdessen bei jedem Treffer die Aenderungszeit geprueft */
+                log.warn("Content cache watcher not available: " + e);
+            }
+        }
+    }
+
+    private void createAssetStore() {
+        if (!assetStoreEnabled) {
+            return;
+        }
+        HTTPAssetStore store = new HTTPAssetStore(Paths.get(rootPath), assetStorePreload, assetStoreParallelism,
+                assetManifest != null ? Paths.get(assetManifest) : null, log);
+        try {
+            store.start(contentCacheWatch);
+        } catch (IOException e) {
+            /* Ohne Index werden alle Dateien wie bisher von der Platte bzw. aus dem HTTPContentCache geliefert */
+            log.error("Asset store not available", e);
+            return;
+        }
+        assetStore = store;
+        log.info("Asset store loaded: " + assetStore);
+    }
 
-        int nextThreadNumber = 0;
+    private void createDirectoryIndex() {
+        if (directoryIndexMaxDirectories <= 0) {
+            return;
+        }
+        directoryIndex = new HTTPDirectoryIndex(directoryIndexMaxDirectories);
+        if (contentCacheWatch) {
+            try {
+                directoryIndex.watch(Paths.get(rootPath), log);
+            } catch (IOException e) {
+                /* Ohne WatchService wird stattdessen bei jedem Treffer die Aenderungszeit des Verzeichnisses geprueft */
+                log.warn("Directory index watcher not available: " + e);
+            }
+        }
+    }
+
+    /*
+     * Erzeugt den Executor, der die Arbeitsthreads eines Shards der blockierenden Betriebsarten ausfuehrt;
+     * die Plattform-Threads des THREAD_POOL werden auf die Shards aufgeteilt
+     */
+    private ExecutorService createWorkerExecutor(int shard, int shardCount) {
+        String name = shardCount > 1 ? "HTTP Worker Thread " + shard + "-" : "HTTP Worker Thread ";
+        switch (mode) {
+            case VIRTUAL_THREADS:
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 0).factory());
+            case THREAD_POOL:
+                return Executors.newFixedThreadPool(Math.max(1, workerPoolSize / shardCount), Thread.ofPlatform().name(name, 0).factory());
+            default:
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name(name, 0).factory());
+        }
+    }
+
+    private void startBlockingServer() {
+        int shardCount = Math.max(1, acceptorShards);
+        AtomicInteger nextThreadNumber = new AtomicInteger();
+        ExecutorService[] workerExecutors = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            workerExecutors[i] = createWorkerExecutor(i, shardCount);
+        }
+        ScheduledExecutorService watchdog = startWriteWatchdog();
 
         try {
             /* Server-Socket erzeugen */
-            System.err.println("Creating new TCP Server Socket Port " + serverPort);
-            welcomeSocket = new ServerSocket(serverPort);
+            log.info("Creating new TCP Server Socket Port " + serverPort + " (" + mode + ")");
+            /* Neuen Arbeits-Thread erzeugen und die Nummer, den Socket sowie das Serverobjekt uebergeben */
+            runShards(shardCount, shard -> channel ->
+                    workerExecutors[shard].execute(new HTTPWorkerThread(nextThreadNumber.getAndIncrement(), channel.socket(), this)));
+        } finally {
+            /* Laufende Arbeitsthreads noch zu Ende arbeiten lassen, aber keine neuen annehmen */
+            for (ExecutorService workerExecutor : workerExecutors) {
+                workerExecutor.shutdown();
+            }
+            watchdog.shutdown();
+        }
+    }
+
+    /*
+     * Oeffnet die Server-Sockets der Shards und nimmt Verbindungen an, bis stop() sie schliesst. Mit
+     * SO_REUSEPORT erhaelt jeder Shard einen eigenen Socket auf demselben Port und einen eigenen
+     * Acceptor-Thread (Shard 0 laeuft im aufrufenden Thread); sonst teilt ein Acceptor reihum zu.
+     * Ueber einen ServerSocketChannel erzeugt, damit angenommene Sockets einen Kanal fuer sendfile haben.
+     */
+    private void runShards(int shardCount, IntFunction<Consumer<SocketChannel>> dispatchers) {
+        HTTPListenerShard[] created = new HTTPListenerShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            created[i] = new HTTPListenerShard(i, this, Math.max(1, pendingConnections / shardCount), dispatchers.apply(i));
+        }
+        shards = created;
+        List<Thread> acceptors = new ArrayList<Thread>();
+
+        try {
+            boolean reusePort = shardCount > 1 && supportsReusePort();
+            if (shardCount > 1 && !reusePort) {
+                log.warn("SO_REUSEPORT not available, one acceptor distributes to " + shardCount + " shards");
+            }
+            int listenerCount = reusePort ? shardCount : 1;
+            for (int i = 0; i < listenerCount; i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                if (reusePort) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                /* Erst zuordnen, dann binden: stop() schliesst so auch einen Socket, der gerade entsteht */
+                created[i].listen(channel, reusePort ? new HTTPListenerShard[]{created[i]} : created);
+                channel.bind(new InetSocketAddress(serverPort), acceptBacklog);
+            }
+            if (shardCount > 1) {
+                log.info("Accepting on " + listenerCount + " listener(s) for " + shardCount + " shards");
+            }
+            for (int i = 1; i < listenerCount; i++) {
+                Thread acceptor = Thread.ofPlatform().name("HTTP Acceptor " + i).start(created[i]);
+                acceptors.add(acceptor);
+            }
 
-            while (serviceRequested) {
-                workerThreadsSem.acquire();  // Blockieren, wenn max. Anzahl Worker-Threads erreicht
+            created[0].run();
+            log.info("Server shutdown");
+        } catch (IOException e) {
+            log.error("Server stopped with error", e);
+        } finally {
+            closeShards();
+            for (Thread acceptor : acceptors) {
+                try {
+                    acceptor.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
 
-                System.err.println("HTTP Server is waiting for connection - listening TCP port " + serverPort);
-                /*
-                 * Blockiert auf Verbindungsanfrage warten --> nach Verbindungsaufbau
-                 * Standard-Socket erzeugen und an connectionSocket zuweisen
-                 */
-                connectionSocket = welcomeSocket.accept();
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-                /* Neuen Arbeits-Thread erzeugen und die Nummer, den Socket sowie das Serverobjekt uebergeben */
-                (new HTTPWorkerThread(nextThreadNumber++, connectionSocket, this)).start();
+    /*
+     * Blockierende Schreibvorgaenge kennen kein SO_TIMEOUT: ein Hintergrund-Thread prueft jede Sekunde,
+     * ob ein Arbeitsthread laenger als writeTimeout ohne Sendefortschritt haengt, und schliesst dessen Socket
+     */
+    private ScheduledExecutorService startWriteWatchdog() {
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HTTP Write Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(() -> {
+            long now = System.nanoTime();
+            for (HTTPWorkerThread worker : workers) {
+                worker.checkWriteTimeout(now);
             }
+        }, 1, 1, TimeUnit.SECONDS);
+        return watchdog;
+    }
+
+    // Gibt die Zulassung einer beendeten Verbindung frei (Arbeitsthread bzw. Reactor)
+    void releaseConnection(InetAddress remote) {
+        HTTPAdmission.release(this, remote);
+    }
 
-            System.err.println("Server shutdown");
-        } catch (Exception e) {
-            System.err.println(e.toString());
+    /*
+     * Nicht-blockierender Betrieb: Die Acceptor-Threads nehmen nur Verbindungen an und verteilen sie
+     * reihum auf die Reactor-Threads ihres Shards, die Lesen, Bearbeiten und Schreiben uebernehmen.
+     * Langsame oder untaetige Clients belegen so keinen eigenen Thread.
+     */
+    private void startNioServer() {
+        int shardCount = Math.max(1, acceptorShards);
+        log.info("Creating new NIO Server Channel Port " + serverPort + " with " + reactorThreads + " reactors");
+        HTTPReactor[] reactors = new HTTPReactor[Math.max(reactorThreads, shardCount)];
+        try {
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new HTTPReactor(i, this);
+                reactors[i].start();
+            }
+        } catch (IOException e) {
+            log.error("Server stopped with error", e);
+            return;
         }
+        this.reactors = reactors;
+
+        /* Shard i bedient die Reactors i, i + shardCount, ...; zugelassene Verbindungen gehen reihum an sie */
+        runShards(shardCount, shard -> {
+            List<HTTPReactor> own = new ArrayList<HTTPReactor>();
+            for (int i = shard; i < reactors.length; i += shardCount) {
+                own.add(reactors[i]);
+            }
+            AtomicInteger nextReactor = new AtomicInteger();
+            return channel -> own.get(Math.floorMod(nextReactor.getAndIncrement(), own.size())).register(channel);
+        });
     }
 
     public static void main(String[] args) {
-        /* Erzeuge Server und starte ihn */
-        HTTPServer myServer = new HTTPServer(80);
+        /* Erzeuge Server und starte ihn (optional: Betriebsart als erstes Argument, z.B. "NIO") */
+        ServerMode mode = args.length > 0 ? ServerMode.valueOf(args[0].toUpperCase()) : ServerMode.THREAD_PER_CONNECTION;
+        int maxConnections = mode == ServerMode.THREAD_PER_CONNECTION ? DEFAULT_MAX_CONNECTIONS : 10000;
+        HTTPServer myServer = new HTTPServer(80, maxConnections, STANDARD_ROOT_PATH, mode);
         myServer.startServer();
+        myServer.log.close();
     }
 }
 
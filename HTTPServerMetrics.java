@@ -0,0 +1,314 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * HTTPServerMetrics.java
+ *
+ * Version 1.0
+ * Zweck: Laufzeitkennzahlen des Servers (Anfragen je Route, Antworten je Statuscode, gesendete
+ *        Bytes, Verbindungen, Wartezeit auf Zulassung, Latenzen der Phasen Parsen/Bearbeiten/
+ *        Schreiben). Zaehler sind LongAdder, damit parallele Arbeitsthreads sich nicht auf einer
+ *        Cache-Line treffen. Ausgabe im Prometheus-Textformat ueber die Route /metrics.
+ */
+public class HTTPServerMetrics {
+    /* Bekannte Routen; alle anderen Pfade werden als "static" gezaehlt, damit die Anzahl der Labels begrenzt bleibt */
+    private static final String[] ROUTES = {"/time", "/date", "/shutdown", "/metrics", "/echo"};
+
+    /*
+     * Histogramm mit logarithmisch-linearen Buckets (wie HdrHistogram): je Zweierpotenz 16
+     * Unter-Buckets, also ca. 6 % relative Genauigkeit. Werte in Mikrosekunden.
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(indexOf(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        public void recordNanos(long nanos) {
+            record(nanos / 1000);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        // Liefert den Wert (Obergrenze des Buckets), unter dem der Anteil quantile aller Messungen liegt
+        public long valueAtQuantile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= target) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    private final Map<String, LongAdder> requestsByRoute = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder[] responsesByStatus;
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder totalConnections = new LongAdder();
+
+    /* Abgewiesene Verbindungen je Grund (Warteschlange voll, Wartezeit ueberschritten, Grenze je IP) und Timeouts je Art */
+    private final Map<String, LongAdder> rejectedConnections = new ConcurrentHashMap<String, LongAdder>();
+    private final Map<String, LongAdder> timeouts = new ConcurrentHashMap<String, LongAdder>();
+
+    private final LatencyHistogram admissionWait = new LatencyHistogram();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram handleLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    public HTTPServerMetrics() {
+        responsesByStatus = new LongAdder[HTTPResponse.HTTPStatusCode.values().length];
+        for (int i = 0; i < responsesByStatus.length; i++) {
+            responsesByStatus[i] = new LongAdder();
+        }
+        for (String route : ROUTES) {
+            requestsByRoute.put(route, new LongAdder());
+        }
+        requestsByRoute.put("static", new LongAdder());
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+        totalConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void connectionRejected(String reason) {
+        rejectedConnections.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    // Art: "header", "read" (Anfrage nicht rechtzeitig empfangen) oder "write" (Antwort ohne Fortschritt)
+    public void recordTimeout(String kind) {
+        timeouts.computeIfAbsent(kind, k -> new LongAdder()).increment();
+    }
+
+    public void recordAdmissionWait(long nanos) {
+        admissionWait.recordNanos(nanos);
+    }
+
+    // Erfasst eine vollstaendig gesendete Antwort samt Dauer der drei Phasen und der tatsaechlich gesendeten Bytes
+    public void recordRequest(HTTPRequest<?> request, HTTPResponse<?> response, long parseNanos, long handleNanos, long writeNanos, long bytesWritten) {
+        if (request != null) {
+            /* Label ist das Routenmuster (z.B. "/files/{name}"), nicht der Pfad: die Zahl der Zeitreihen bleibt begrenzt */
+            String route = request.getRoute() != null ? request.getRoute() : "static";
+            requestsByRoute.computeIfAbsent(route, r -> new LongAdder()).increment();
+        }
+        responsesByStatus[response.getStatus().ordinal()].increment();
+        bytesSent.add(bytesWritten);
+        parseLatency.recordNanos(parseNanos);
+        handleLatency.recordNanos(handleNanos);
+        writeLatency.recordNanos(writeNanos);
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getHandleLatency() {
+        return handleLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    // Alle Kennzahlen im Prometheus-Textformat (Version 0.0.4)
+    public String toPrometheus(HTTPServer server) {
+        StringBuilder sb = new StringBuilder(4096);
+
+        sb.append("# HELP http_requests_total Requests handled, by route.\n");
+        sb.append("# TYPE http_requests_total counter\n");
+        for (Map.Entry<String, LongAdder> entry : requestsByRoute.entrySet()) {
+            sb.append("http_requests_total{route=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        sb.append("# HELP http_responses_total Responses sent, by status code.\n");
+        sb.append("# TYPE http_responses_total counter\n");
+        for (HTTPResponse.HTTPStatusCode status : HTTPResponse.HTTPStatusCode.values()) {
+            sb.append("http_responses_total{code=\"").append(status.getCode()).append("\"} ")
+                    .append(responsesByStatus[status.ordinal()].sum()).append('\n');
+        }
+
+        sb.append("# HELP http_response_bytes_total Response bytes written to the socket (status line, headers and body).\n");
+        sb.append("# TYPE http_response_bytes_total counter\n");
+        sb.append("http_response_bytes_total ").append(bytesSent.sum()).append('\n');
+
+        sb.append("# HELP http_connections_active Currently open client connections.\n");
+        sb.append("# TYPE http_connections_active gauge\n");
+        sb.append("http_connections_active ").append(activeConnections.sum()).append('\n');
+
+        sb.append("# HELP http_connections_total Accepted client connections.\n");
+        sb.append("# TYPE http_connections_total counter\n");
+        sb.append("http_connections_total ").append(totalConnections.sum()).append('\n');
+
+        sb.append("# HELP http_connections_rejected_total Connections answered with 503 before being admitted, by reason.\n");
+        sb.append("# TYPE http_connections_rejected_total counter\n");
+        for (Map.Entry<String, LongAdder> entry : rejectedConnections.entrySet()) {
+            sb.append("http_connections_rejected_total{reason=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        sb.append("# HELP http_timeouts_total Connections closed by a header, read or write timeout.\n");
+        sb.append("# TYPE http_timeouts_total counter\n");
+        for (Map.Entry<String, LongAdder> entry : timeouts.entrySet()) {
+            sb.append("http_timeouts_total{kind=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        appendSummary(sb, "http_admission_wait_seconds", "Time spent waiting for an admission permit.", null, admissionWait);
+
+        sb.append("# HELP http_request_phase_seconds Latency of the request phases parse, handle and write.\n");
+        sb.append("# TYPE http_request_phase_seconds summary\n");
+        appendQuantiles(sb, "http_request_phase_seconds", "phase=\"parse\"", parseLatency);
+        appendQuantiles(sb, "http_request_phase_seconds", "phase=\"handle\"", handleLatency);
+        appendQuantiles(sb, "http_request_phase_seconds", "phase=\"write\"", writeLatency);
+
+        HTTPListenerShard[] shards = server.getShards();
+        if (shards.length > 0) {
+            sb.append("# HELP http_shard_accepted_total Connections accepted per listener shard.\n");
+            sb.append("# TYPE http_shard_accepted_total counter\n");
+            for (HTTPListenerShard shard : shards) {
+                sb.append("http_shard_accepted_total{shard=\"").append(shard.getId()).append("\"} ").append(shard.getAccepted()).append('\n');
+            }
+            sb.append("# TYPE http_shard_admitted_total counter\n");
+            for (HTTPListenerShard shard : shards) {
+                sb.append("http_shard_admitted_total{shard=\"").append(shard.getId()).append("\"} ").append(shard.getAdmitted()).append('\n');
+            }
+            sb.append("# TYPE http_shard_rejected_total counter\n");
+            for (HTTPListenerShard shard : shards) {
+                sb.append("http_shard_rejected_total{shard=\"").append(shard.getId()).append("\"} ").append(shard.getRejected()).append('\n');
+            }
+            sb.append("# TYPE http_shard_queue_length gauge\n");
+            for (HTTPListenerShard shard : shards) {
+                sb.append("http_shard_queue_length{shard=\"").append(shard.getId()).append("\"} ").append(shard.getQueueLength()).append('\n');
+            }
+        }
+
+        HTTPContentCache cache = server.contentCache;
+        if (cache != null) {
+            sb.append("# TYPE http_content_cache_hits_total counter\n");
+            sb.append("http_content_cache_hits_total ").append(cache.getHits()).append('\n');
+            sb.append("# TYPE http_content_cache_misses_total counter\n");
+            sb.append("http_content_cache_misses_total ").append(cache.getMisses()).append('\n');
+            sb.append("# TYPE http_content_cache_evictions_total counter\n");
+            sb.append("http_content_cache_evictions_total ").append(cache.getEvictions()).append('\n');
+            sb.append("# TYPE http_content_cache_bytes gauge\n");
+            sb.append("http_content_cache_bytes ").append(cache.getCurrentBytes()).append('\n');
+        }
+        HTTPAssetStore assetStore = server.assetStore;
+        if (assetStore != null) {
+            sb.append("# TYPE http_asset_store_files gauge\n");
+            sb.append("http_asset_store_files ").append(assetStore.getFileCount()).append('\n');
+            sb.append("# TYPE http_asset_store_mapped_bytes gauge\n");
+            sb.append("http_asset_store_mapped_bytes ").append(assetStore.getMappedBytes()).append('\n');
+            sb.append("# HELP http_asset_store_index_bytes Estimated heap size of the path index.\n");
+            sb.append("# TYPE http_asset_store_index_bytes gauge\n");
+            sb.append("http_asset_store_index_bytes ").append(assetStore.getIndexBytes()).append('\n');
+            sb.append("# HELP http_asset_store_load_seconds Duration of the last scan and preload.\n");
+            sb.append("# TYPE http_asset_store_load_seconds gauge\n");
+            sb.append("http_asset_store_load_seconds ").append(assetStore.getLoadMillis() / 1000.0).append('\n');
+            if (assetStore.getFirstRequestNanos() >= 0) {
+                sb.append("# HELP http_asset_store_first_request_seconds Lookup time of the first request after the last load.\n");
+                sb.append("# TYPE http_asset_store_first_request_seconds gauge\n");
+                sb.append("http_asset_store_first_request_seconds ").append(assetStore.getFirstRequestNanos() / 1e9).append('\n');
+            }
+            sb.append("# TYPE http_asset_store_hits_total counter\n");
+            sb.append("http_asset_store_hits_total ").append(assetStore.getHits()).append('\n');
+            sb.append("# TYPE http_asset_store_misses_total counter\n");
+            sb.append("http_asset_store_misses_total ").append(assetStore.getMisses()).append('\n');
+            sb.append("# HELP http_asset_store_cold_loads_total Files mapped on first request instead of at startup.\n");
+            sb.append("# TYPE http_asset_store_cold_loads_total counter\n");
+            sb.append("http_asset_store_cold_loads_total ").append(assetStore.getColdLoads()).append('\n');
+            sb.append("# TYPE http_asset_store_cold_load_seconds_total counter\n");
+            sb.append("http_asset_store_cold_load_seconds_total ").append(assetStore.getColdLoadNanos() / 1e9).append('\n');
+            sb.append("# TYPE http_asset_store_reloads_total counter\n");
+            sb.append("http_asset_store_reloads_total ").append(assetStore.getReloads()).append('\n');
+        }
+        HTTPDirectoryIndex directoryIndex = server.directoryIndex;
+        if (directoryIndex != null) {
+            sb.append("# TYPE http_directory_index_hits_total counter\n");
+            sb.append("http_directory_index_hits_total ").append(directoryIndex.getHits()).append('\n');
+            sb.append("# TYPE http_directory_index_misses_total counter\n");
+            sb.append("http_directory_index_misses_total ").append(directoryIndex.getMisses()).append('\n');
+        }
+
+        sb.append("# TYPE http_log_dropped_total counter\n");
+        sb.append("http_log_dropped_total ").append(server.log.getDropped()).append('\n');
+
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String help, String labels, LatencyHistogram histogram) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        appendQuantiles(sb, name, labels, histogram);
+    }
+
+    private static void appendQuantiles(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            sb.append(name).append("{").append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.valueAtQuantile(quantile))).append('\n');
+        }
+        String suffixLabels = labels == null ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(suffixLabels).append(' ').append(seconds(histogram.getSum())).append('\n');
+        sb.append(name).append("_count").append(suffixLabels).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.valueOf(micros / 1_000_000.0);
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * HTTPStaticFileHandler.java
+ *
+ * Version 1.0
+ * Zweck: Liefert Dateien und Verzeichnislisten unterhalb von server.rootPath aus (Fallback des
+ *        HTTPRouter). Beruecksichtigt den HTTPAssetStore, den HTTPContentCache, bedingte Anfragen,
+ *        Byte-Bereiche und die Komprimierung von Textformaten.
+ */
+class HTTPStaticFileHandler implements HTTPHandler {
+    private static final String CRLF = "\r\n";
+
+    private final HTTPServer server;
+
+    /* Konstruktor */
+    public HTTPStaticFileHandler(HTTPServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public HTTPResponse<?> handle(HTTPRequest<?> request) throws IOException {
+        HTTPResponse<?> response;
+        Map<String, String> headers = new HashMap<String, String>();
+
+        /*
+         * HEAD wird wie GET bearbeitet, liest die Datei aber nie: kein Laden in den Cache und keine Komprimierung,
+         * die Header stammen aus Laenge und Aenderungszeit der Datei (bzw. aus einem vorhandenen Cache-Eintrag)
+         */
+        boolean head = request.getMethod() == HTTPRequest.HTTPMethod.HEAD;
+        if (request.getMethod() != HTTPRequest.HTTPMethod.GET && !head) {
+            response = HTTPResponses.text(HTTPResponse.HTTPStatusCode.METHOD_NOT_ALLOWED, "Method not supported!");
+            response.setHeader("Allow", "GET, HEAD");
+            return response;
+        }
+
+        /* Eingeblendete bzw. zwischengespeicherte Dateien ohne Dateisystemzugriff beantworten */
+        if (server.assetStore != null) {
+            HTTPContentCache.Entry asset = server.assetStore.lookup(request.getPath());
+            if (asset != null) {
+                return cachedResponse(request, asset, headers);
+            }
+        }
+        File file = new File(server.rootPath + request.getPath());
+        String cacheKey = null;
+        if (server.contentCache != null) {
+            cacheKey = HTTPContentCache.keyOf(file);
+            HTTPContentCache.Entry cached = server.contentCache.lookup(cacheKey);
+            if (cached != null) {
+                return cachedResponse(request, cached, headers);
+            }
+        }
+
+        /*
+         * Der Parser liefert bereits einen decodierten Pfad ohne ".."; zusaetzlich muss die aufgeloeste Datei
+         * (auch ueber symbolische Links) unterhalb des Wurzelverzeichnisses liegen
+         */
+        if (!isBelowRoot(file)) {
+            return HTTPResponses.text(HTTPResponse.HTTPStatusCode.FORBIDDEN, "403 - Forbidden!");
+        }
+
+        /* Überprüfe, ob die angeforderte Datei existiert */
+        server.log.debug("Request Path: " + request.getPath());
+
+        if (!file.exists()) {
+            // Datei nicht gefunden
+            String body = "404 - File not found!)";
+
+            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.NOT_FOUND, headers, body);
+            response.setHeader("Content-Type", "text/plain");
+
+            return HTTPResponses.withStandardHeaders(response);
+        } else if (file.isDirectory()) {
+            // Verzeichnisinhalt anzeigen
+            return directoryListing(request, file);
+        } else {
+            // Datei gefunden --> Inhalt wird erst beim Senden direkt von der Platte uebertragen
+            if (!file.canRead()) {
+                HTTPResponse<String> errorResponse = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, headers, "500 - Internal Server Error!");
+                return HTTPResponses.withStandardHeaders(errorResponse);
+            }
+            String contentType = determineContentType(file);
+            if (server.contentCache != null && !head) {
+                try {
+                    HTTPContentCache.Entry cached = server.contentCache.load(cacheKey, file, contentType);
+                    if (cached != null) {
+                        return cachedResponse(request, cached, headers);
+                    }
+                } catch (IOException e) {
+                    HTTPResponse<String> errorResponse = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, headers, "500 - Internal Server Error!");
+                    server.log.error("Error while reading " + file, e);
+                    return HTTPResponses.withStandardHeaders(errorResponse);
+                }
+            }
+            long length = file.length();
+            long lastModified = file.lastModified();
+            /* Nicht zwischengespeicherte (grosse) Dateien: schwacher ETag aus den Metadaten, ohne die Datei zu lesen */
+            String etag = HTTPValidators.weakETag(file);
+            String encoding = null;
+            if (server.compressionEnabled && HTTPCompression.isCompressible(contentType)) {
+                headers.put("Vary", "Accept-Encoding");
+                encoding = head ? null : HTTPCompression.negotiate(request.getHeader("Accept-Encoding"));
+                if (encoding != null) {
+                    etag = etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+                }
+            }
+            if (HTTPValidators.isNotModified(request, etag, lastModified)) {
+                return notModifiedResponse(file, etag, HTTPValidators.httpDate(lastModified), headers);
+            }
+            if (encoding != null) {
+                /* Komprimierte Laenge ist vorab unbekannt: blockweise komprimieren und chunked senden (keine Bereiche) */
+                try {
+                    response = new HTTPResponse<HTTPResponse.StreamingBody>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers,
+                            HTTPCompression.CompressedBody.ofFile(file, encoding, server.compressionLevel));
+                } catch (IOException e) {
+                    server.log.error("Error while reading " + file, e);
+                    return HTTPResponses.withStandardHeaders(new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, headers, "500 - Internal Server Error!"));
+                }
+                response.setHeader("Content-Type", contentType);
+                response.setHeader("Content-Encoding", encoding);
+                setValidatorHeaders(response, file, etag, HTTPValidators.httpDate(lastModified));
+                response.setHeader("Accept-Ranges", "none");
+
+                return HTTPResponses.withStandardHeaders(response);
+            }
+            List<long[]> ranges = HTTPRanges.requestedRanges(request, length, etag, HTTPValidators.httpDate(lastModified));
+            if (ranges != null) {
+                return rangeResponse(ranges, file, null, contentType, length, etag, HTTPValidators.httpDate(lastModified), headers);
+            }
+
+            response = new HTTPResponse<HTTPResponse.FileBody>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, new HTTPResponse.FileBody(file, 0, length));
+            response.setHeader("Content-Type", contentType);
+            response.setHeader("Content-Length", String.valueOf(length));
+            setValidatorHeaders(response, file, etag, HTTPValidators.httpDate(lastModified));
+
+            return HTTPResponses.withStandardHeaders(response);
+        }
+    }
+
+    // Prueft ueber die kanonischen Pfade, ob die Datei im Wurzelverzeichnis oder darunter liegt
+    private boolean isBelowRoot(File file) throws IOException {
+        String root = new File(server.rootPath).getCanonicalPath();
+        String path = file.getCanonicalPath();
+        return path.equals(root) || path.startsWith(root.endsWith(File.separator) ? root : root + File.separator);
+    }
+
+    /*
+     * Verzeichnisliste aus dem HTTPDirectoryIndex, seitenweise ueber die Query-Parameter offset und
+     * limit, sortiert nach sort=name|size|modified (order=desc fuer absteigend). Mit format=json oder
+     * "Accept: application/json" als JSON statt HTML. Der Body wird beim Senden erzeugt (chunked).
+     */
+    private HTTPResponse<?> directoryListing(HTTPRequest<?> request, File directory) throws IOException {
+        int offset;
+        int limit;
+        HTTPDirectoryIndex.Sort sort;
+        try {
+            offset = intParameter(request, "offset", 0);
+            limit = Math.min(intParameter(request, "limit", server.directoryPageSize), server.directoryMaxPageSize);
+            sort = HTTPDirectoryIndex.Sort.parse(request.getQueryParameter("sort"));
+        } catch (IllegalArgumentException e) {
+            return HTTPResponses.text(HTTPResponse.HTTPStatusCode.BAD_REQUEST, "400 - " + e.getMessage());
+        }
+        if (offset < 0 || limit <= 0) {
+            return HTTPResponses.text(HTTPResponse.HTTPStatusCode.BAD_REQUEST, "400 - offset and limit must be positive");
+        }
+        boolean descending = "desc".equalsIgnoreCase(request.getQueryParameter("order"));
+        String format = request.getQueryParameter("format");
+        String accept = request.getHeader("Accept");
+        boolean json = format != null ? format.equalsIgnoreCase("json") : accept != null && accept.contains("application/json");
+
+        HTTPDirectoryIndex.Listing listing = server.directoryIndex != null
+                ? server.directoryIndex.get(directory)
+                : HTTPDirectoryIndex.scan(directory);
+        HTTPResponse<HTTPResponse.StreamingBody> response = new HTTPResponse<HTTPResponse.StreamingBody>(HTTPServer.HTTP_VERSION,
+                HTTPResponse.HTTPStatusCode.OK, new HashMap<String, String>(),
+                listing.page(request.getPath(), sort, descending, offset, limit, json));
+        response.setHeader("Content-Type", json ? "application/json" : "text/html");
+        HTTPCompression.compressStreamingBody(server, request, response);
+        if (format == null) {
+            /* Ohne format haengt die Darstellung vom Accept-Header ab */
+            String vary = response.getHeader("Vary");
+            response.setHeader("Vary", vary == null ? "Accept" : vary + ", Accept");
+        }
+
+        return HTTPResponses.withStandardHeaders(response);
+    }
+
+    private static int intParameter(HTTPRequest<?> request, String name, int defaultValue) {
+        String value = request.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    // Antwort mit dem Inhalt und den vorberechneten Headern eines Cache-Eintrags
+    private HTTPResponse<?> cachedResponse(HTTPRequest<?> request, HTTPContentCache.Entry identity, Map<String, String> headers) {
+        /* Bei Textformaten die komprimierte Variante waehlen; Validatoren und Bereiche beziehen sich dann auf sie */
+        HTTPContentCache.Entry cached = identity;
+        String encoding = null;
+        boolean compressible = server.compressionEnabled && HTTPCompression.isCompressible(identity.getContentType());
+        if (compressible && request.getMethod() != HTTPRequest.HTTPMethod.HEAD) {
+            /* HEAD erzeugt keine komprimierte Variante, sondern liefert die Header der unkomprimierten Datei */
+            encoding = HTTPCompression.negotiate(request.getHeader("Accept-Encoding"));
+            HTTPContentCache.Entry variant = encoding != null ? HTTPCompression.variant(server, identity, encoding) : null;
+            if (variant != null) {
+                cached = variant;
+            } else {
+                encoding = null;
+            }
+        }
+        if (compressible) {
+            headers.put("Vary", "Accept-Encoding");
+        }
+        if (encoding != null) {
+            headers.put("Content-Encoding", encoding);
+        }
+
+        if (HTTPValidators.isNotModified(request, cached.getETag(), cached.getLastModified())) {
+            return notModifiedResponse(identity.getFile(), cached.getETag(), cached.getLastModifiedHeader(), headers);
+        }
+        long length = cached.size();
+        List<long[]> ranges = HTTPRanges.requestedRanges(request, length, cached.getETag(), cached.getLastModifiedHeader());
+        if (ranges != null) {
+            return rangeResponse(ranges, identity.getFile(), cached.content(), cached.getContentType(), length,
+                    cached.getETag(), cached.getLastModifiedHeader(), headers);
+        }
+        HTTPResponse<ByteBuffer> response = new HTTPResponse<ByteBuffer>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, cached.content());
+        response.setHeader("Content-Type", cached.getContentType());
+        response.setHeader("Content-Length", cached.getContentLength());
+        setValidatorHeaders(response, identity.getFile(), cached.getETag(), cached.getLastModifiedHeader());
+
+        return HTTPResponses.withStandardHeaders(response);
+    }
+
+    // 304: Client-Kopie ist aktuell, nur Validatoren und Cache-Control werden erneut gesendet
+    private HTTPResponse<?> notModifiedResponse(File file, String etag, String lastModified, Map<String, String> headers) {
+        HTTPResponse<String> response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.NOT_MODIFIED, headers, null);
+        setValidatorHeaders(response, file, etag, lastModified);
+
+        return HTTPResponses.withStandardHeaders(response);
+    }
+
+    /*
+     * Antwort auf eine Range-Anfrage: 416, ein einzelner Bereich (206 mit Content-Range) oder mehrere
+     * Bereiche als multipart/byteranges. Ausschnitte zwischengespeicherter Dateien sind Sichten auf den
+     * Cache-Inhalt (content), sonst FileBody-Bereiche, die beim Senden per transferTo gelesen werden.
+     */
+    private HTTPResponse<?> rangeResponse(List<long[]> ranges, File file, ByteBuffer content, String contentType,
+                                       long length, String etag, String lastModified, Map<String, String> headers) {
+        HTTPResponse<?> response;
+        if (ranges.isEmpty()) {
+            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.RANGE_NOT_SATISFIABLE, headers, null);
+            response.setHeader("Content-Range", "bytes */" + length);
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response = new HTTPResponse<Object>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.PARTIAL_CONTENT, headers, slice(file, content, range));
+            response.setHeader("Content-Type", contentType);
+            response.setHeader("Content-Range", HTTPRanges.contentRange(range, length));
+            response.setHeader("Content-Length", String.valueOf(range[1] - range[0] + 1));
+        } else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            List<Object> parts = new ArrayList<Object>(ranges.size() * 2 + 1);
+            for (long[] range : ranges) {
+                String partHeader = CRLF + "--" + boundary + CRLF
+                        + "Content-Type: " + contentType + CRLF
+                        + "Content-Range: " + HTTPRanges.contentRange(range, length) + CRLF + CRLF;
+                parts.add(ByteBuffer.wrap(partHeader.getBytes(StandardCharsets.US_ASCII)));
+                parts.add(slice(file, content, range));
+            }
+            parts.add(ByteBuffer.wrap((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII)));
+
+            HTTPResponse.MultipartBody body = new HTTPResponse.MultipartBody(parts);
+            response = new HTTPResponse<HTTPResponse.MultipartBody>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.PARTIAL_CONTENT, headers, body);
+            response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+            response.setHeader("Content-Length", String.valueOf(body.getLength()));
+        }
+        setValidatorHeaders(response, file, etag, lastModified);
+
+        return HTTPResponses.withStandardHeaders(response);
+    }
+
+    // Ausschnitt [range[0], range[1]] als Sicht auf den Cache-Inhalt oder als Dateibereich
+    private static Object slice(File file, ByteBuffer content, long[] range) {
+        if (content == null) {
+            return new HTTPResponse.FileBody(file, range[0], range[1] - range[0] + 1);
+        }
+        ByteBuffer view = content.duplicate();
+        view.position((int) range[0]).limit((int) range[1] + 1);
+        return view.slice();
+    }
+
+    private void setValidatorHeaders(HTTPResponse<?> response, File file, String etag, String lastModified) {
+        /* Statische Dateien koennen immer auch in Ausschnitten angefordert werden */
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", lastModified);
+        String name = file.getName();
+        String cacheControl = server.cacheControl.getOrDefault(name.substring(name.lastIndexOf('.') + 1), server.defaultCacheControl);
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+    }
+
+    // Content-Type anhand der Dateiendung (nach dem letzten Punkt); unbekannte Typen als application/octet-stream
+    static String determineContentType(File file) {
+        String name = file.getName();
+        String fileType = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+
+        switch (fileType) {
+            case "html":
+                return "text/html";
+            case "jpg":
+                return "image/jpeg";
+            case "gif":
+                return "image/gif";
+            case "ico":
+                return "image/x-icon";
+            case "pdf":
+                return "application/pdf";
+            default:
+                return "application/octet-stream";
+        }
+    }
+}
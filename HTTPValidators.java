@@ -0,0 +1,86 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/*
+ * HTTPValidators.java
+ *
+ * Version 1.0
+ * Zweck: Validatoren fuer bedingte Anfragen (RFC 7232): ETag und Last-Modified erzeugen sowie
+ *        If-None-Match / If-Modified-Since auswerten. Starke ETags werden aus dem Inhalt berechnet
+ *        (einmalig beim Laden in den HTTPContentCache), schwache aus Groesse und Aenderungszeit.
+ */
+class HTTPValidators {
+    /* IMF-fixdate, z.B. "Sun, 06 Nov 1994 08:49:37 GMT" */
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private HTTPValidators() {
+    }
+
+    // Formatiert einen Zeitpunkt (ms seit 1970) als HTTP-Datum
+    static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    // Liest ein HTTP-Datum; -1, wenn es nicht im IMF-fixdate-Format vorliegt
+    static long parseHttpDate(String value) {
+        try {
+            return Instant.from(HTTP_DATE.parse(value.trim())).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Starker ETag aus CRC32C und Laenge des Inhalts
+    static String strongETag(ByteBuffer content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content.duplicate());
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.remaining()) + "\"";
+    }
+
+    // Schwacher ETag aus Groesse und Aenderungszeit, ohne die Datei zu lesen
+    static String weakETag(File file) {
+        return "W/\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /*
+     * true, wenn der Client eine aktuelle Kopie besitzt und 304 erhalten soll. If-None-Match hat
+     * Vorrang; If-Modified-Since wird nur ausgewertet, wenn If-None-Match fehlt.
+     */
+    static boolean isNotModified(HTTPRequest<?> request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etag != null && matchesAny(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null && lastModified > 0) {
+            long since = parseHttpDate(ifModifiedSince);
+            /* HTTP-Daten haben nur Sekundengenauigkeit */
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    // Schwacher Vergleich gegen eine durch Kommata getrennte Liste von ETags (oder "*")
+    private static boolean matchesAny(String list, String etag) {
+        String opaque = opaqueTag(etag);
+        for (String candidate : list.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -1,12 +1,12 @@
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /*
  * HTTPWorkerThread.java
@@ -14,20 +14,35 @@ import java.util.Map;
  * Version 1.0
  * Autor: H. Lind
  * Zweck: Arbeitsthread, der eine existierende Socket-Verbindung zur Bearbeitung erhaelt
+ *        (wird je nach Betriebsart auf einem Plattform- oder virtuellen Thread ausgefuehrt)
  */
-class HTTPWorkerThread extends Thread {
+class HTTPWorkerThread implements Runnable {
     /*
      * Arbeitsthread, der eine existierende Socket-Verbindung zur Bearbeitung
      * erhaelt
      */
     /* Protokoll-Codierung des Zeilenendes: CRLF */
-    private final String CRLF = "\r\n";
+    private static final String CRLF = "\r\n";
+
+    /* Groesse des Empfangspuffers */
+    private static final int READ_BUFFER_SIZE = 8192;
 
     private int name;
     private Socket socket;
+    /* Gegenstelle; beim Start gemerkt, da ein geschlossener Kanal sie nicht mehr liefert */
+    private final InetAddress remote;
     private HTTPServer server;
-    private BufferedReader inFromClient;
+    private InputStream inFromClient;
     private DataOutputStream outToClient;
+    private ByteBuffer inBuffer;
+    private HTTPRequestParser parser;
+    /* Zeitpunkt, zu dem das erste Byte der aktuellen Anfrage vorlag (fuer die Parse-Latenz) */
+    private long parseStart;
+    /* Fuer den Schreib-Timeout: laeuft gerade ein Sendevorgang und wann gab es zuletzt Fortschritt */
+    private volatile boolean writing;
+    private volatile long lastWriteProgress;
+    /* true, solange zwischen zwei Anfragen auf die naechste gewartet wird (fuer HTTPServer.stop()) */
+    private volatile boolean idle;
     boolean workerServiceRequested = true; // Arbeitsthread beenden?
 
     /* Konstruktor */
@@ -35,267 +50,386 @@ class HTTPWorkerThread extends Thread {
         /* Konstruktor */
         this.name = num;
         this.socket = sock;
+        this.remote = sock.getInetAddress();
         this.server = server;
     }
 
     public void run() {
 
+        server.workers.add(this);
+        server.metrics.connectionOpened();
         try {
             /* Socket-Basisstreams durch spezielle Streams filtern */
-            inFromClient = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            inFromClient = socket.getInputStream();
             outToClient = new DataOutputStream(socket.getOutputStream());
-
-            /* Verbindungsaufbau --> Anfrage empfangen */
-            handleHTTPRequest();
+            /* Empfangene, aber noch nicht geparste Bytes (z.B. per Pipelining gesendete Folgeanfragen) */
+            inBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            inBuffer.limit(0);
+            parser = new HTTPRequestParser(server.maxRequestLine, server.maxHeaderSize, server.maxHeaderCount, server.maxRequestBodySize);
+
+            /* Verbindungsaufbau --> Anfragen empfangen, solange die Verbindung offen bleiben soll */
+            int requestCount = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                /* Leerlauf- bzw. Anfrage-Timeouts setzt readHTTPRequest vor jedem Lesen */
+                keepAlive = handleHTTPRequest(++requestCount);
+            }
 
             /* Socket-Streams schliessen --> Verbindungsabbau */
             socket.close();
+        } catch (SocketTimeoutException e) {
+            if (parser.isIdle()) {
+                server.log.debug("Keep-alive timeout, closing connection!");
+                server.metrics.recordTimeout("idle");
+            } else {
+                /* Anfrage begonnen, aber nicht rechtzeitig vollstaendig (z.B. Slowloris) --> 408 */
+                sendRequestTimeout(parser.isReadingHeader() ? "header" : "read");
+            }
+            closeSocket();
         } catch (IOException e) {
-            System.err.println("Connection aborted by client!");
+            server.log.debug("Connection aborted by client!");
+            closeSocket();
         } finally {
-            System.err.println("HTTP Worker Thread " + name + " stopped!");
-            /* Platz fuer neuen Thread freigeben */
-            server.workerThreadsSem.release();
+            if (parser != null) {
+                /* Bei Abbruch mitten im Body dessen Puffer bzw. temporaere Datei freigeben */
+                parser.discardBody();
+            }
+            server.log.debug("HTTP Worker Thread " + name + " stopped!");
+            server.metrics.connectionClosed();
+            server.workers.remove(this);
+            /* Platz fuer neue Verbindung freigeben */
+            server.releaseConnection(remote);
         }
     }
 
-    /* HTTP-Anfrage bearbeiten */
-    private void handleHTTPRequest() {
-        System.err.println("Handle HTTP Request:");
-        try {
-            /* Lese HTTP-Anfrage */
-            HTTPRequest<String> request = readHTTPRequest();
-            System.err.println("HTTP Request:");
-            System.err.println(CRLF + "---------------------");
-            System.err.println(request.toString());
-            System.err.println(CRLF + "---------------------");
-
-            /* Erzeuge HTTP-Antwort */
-            HTTPResponse response = generateHTTPResponse(request);
-            System.err.println("HTTP Response:");
-            System.err.println(CRLF + "---------------------");
-            System.err.println(response.toString());
-            System.err.println(CRLF + "---------------------");
-
-            /* Sende HTTP-Antwort */
-            writeToClient(response);
-
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Bricht die Verbindung ab, wenn ein Sendevorgang laenger als writeTimeout keinen Fortschritt macht (Watchdog des Servers)
+    void checkWriteTimeout(long now) {
+        if (writing && now - lastWriteProgress > TimeUnit.MILLISECONDS.toNanos(server.writeTimeout)) {
+            server.log.info("Write timeout, closing connection to " + remote);
+            server.metrics.recordTimeout("write");
+            writing = false;
+            /* Ein blockierter write() kehrt mit einer Exception zurueck */
+            closeSocket();
         }
     }
 
-    private HTTPResponse generateHTTPResponse(HTTPRequest request) {
-        /* Erzeuge HTTP-Antwort */
-        HTTPResponse response;
-        Map<String, String> headers = new HashMap<String, String>();
-
-        /* Überprüfe, ob der User-Agent ein Browser ist */
-        String userAgent = request.getHeader("User-Agent");
-        if (!(userAgent.contains("curl") || userAgent.contains("Firefox") || userAgent.contains("HTTPie"))) {
-            String body = "User-agent is not accepted!";
-
-            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.NOT_ACCEPTABLE, headers, body);
-            response.setHeader("Content-Type", "text/plain");
-
-            return setStandardHeaders(response);
+    // Schliesst die Verbindung, falls sie gerade zwischen zwei Anfragen wartet (HTTPServer.stop()); true, wenn geschlossen
+    synchronized boolean closeIfIdle() {
+        if (!idle) {
+            return false;
         }
+        idle = false;
+        closeSocket();
+        return true;
+    }
 
-        if (!request.getMethod().equals(HTTPRequest.HTTPMethod.GET)) {
-            String body = "Method not supported!";
-
-            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.BAD_REQUEST, headers, body);
-            response.setHeader("Content-Type", "text/plain");
+    // Bricht die Verbindung ab, wenn die Frist von HTTPServer.stop() abgelaufen ist
+    void abort() {
+        closeSocket();
+    }
 
-            return setStandardHeaders(response);
+    // Sendet 408 fuer eine nicht rechtzeitig vollstaendig empfangene Anfrage (best effort)
+    private void sendRequestTimeout(String kind) {
+        server.log.info("Request timeout (" + kind + ") from " + remote);
+        server.metrics.recordTimeout(kind);
+        HTTPResponse response = timeoutResponse();
+        try {
+            long writeStart = System.nanoTime();
+            long written = writeToClient(response);
+            long end = System.nanoTime();
+            server.log.access(remote, null, response, written, 0);
+            server.metrics.recordRequest(null, response, 0, 0, end - writeStart, written);
+        } catch (IOException e) {
+            server.log.debug("Connection aborted by client!");
         }
+    }
 
-        /* RESTful API Zeitserver */
-        switch (request.getPath()) {
-            case "/time":
-                DateTimeFormatter dtf = DateTimeFormatter.ofLocalizedTime(FormatStyle.MEDIUM);
-                String body = LocalTime.now().format(dtf);
-
-                response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, body);
-                response.setHeader("Content-Type", "text/plain");
-                response.setHeader("Content-Length", String.valueOf(body.length()));
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            server.log.debug("Connection aborted by client!");
+        }
+    }
 
-                return setStandardHeaders(response);
-            case "/date":
-                dtf = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM);
-                body = LocalDate.now().format(dtf);
+    /* HTTP-Anfrage bearbeiten; liefert true, wenn die Verbindung fuer weitere Anfragen offen bleibt */
+    private boolean handleHTTPRequest(int requestCount) throws IOException {
+        try {
+            /* Lese HTTP-Anfrage */
+            HTTPRequest<HTTPRequestBody> request = readHTTPRequest();
+            long start = System.nanoTime();
+            long parseNanos = start - parseStart;
+            if (request == null && parser.hasError()) {
+                /* Ungueltige Anfrage --> 400 (bzw. 413) senden und Verbindung schliessen */
+                server.log.info("Bad Request: " + parser.getErrorMessage());
+                HTTPResponse response = errorResponse(parser);
+                long writeStart = System.nanoTime();
+                long written = writeToClient(response);
+                long end = System.nanoTime();
+                server.log.access(remote, null, response, written, (end - start) / 1000);
+                server.metrics.recordRequest(null, response, parseNanos, writeStart - start, end - writeStart, written);
+                return false;
+            }
+            if (request == null) {
+                /* Client hat die Verbindung geschlossen */
+                return false;
+            }
+            if (server.log.isDebugEnabled()) {
+                server.log.debug("HTTP Request:" + CRLF + "---------------------" + CRLF + request + CRLF + "---------------------");
+            }
 
-                response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, body);
-                response.setHeader("Content-Type", "text/plain");
-                response.setHeader("Content-Length", String.valueOf(body.length()));
+            /* Ein empfangener Body bleibt bis nach dem Senden erhalten (z.B. fuer /echo) */
+            HTTPRequestBody body = request.Body();
+            try (body) {
+                /* Erzeuge HTTP-Antwort */
+                HTTPResponse response = generateHTTPResponse(server, request);
+                boolean keepAlive = applyConnectionHeaders(server, request, response, requestCount);
+                if (server.log.isDebugEnabled()) {
+                    server.log.debug("HTTP Response:" + CRLF + "---------------------" + CRLF + response + CRLF + "---------------------");
+                }
+
+                /* Sende HTTP-Antwort */
+                long writeStart = System.nanoTime();
+                long written = writeToClient(response);
+                long end = System.nanoTime();
+                server.log.access(remote, request, response, written, (end - start) / 1000);
+                server.metrics.recordRequest(request, response, parseNanos, writeStart - start, end - writeStart, written);
+
+                return keepAlive;
+            }
+        } catch (SocketTimeoutException e) {
+            throw e;
+        } catch (IOException e) {
+            server.log.error("Error while handling request", e);
+            return false;
+        }
+    }
 
-                return setStandardHeaders(response);
-            case "/shutdown":
-                server.serviceRequested = false;
-                body = "Server is shutting down!";
+    /*
+     * Antwort auf eine Anfrage, die der HTTPRequestParser nicht akzeptiert hat (400, 413 bei zu grossem
+     * Body); beendet die Verbindung, da der Rest der Anfrage nicht mehr zuverlaessig abgegrenzt werden kann
+     */
+    static HTTPResponse errorResponse(HTTPRequestParser parser) {
+        HTTPResponse<String> response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, parser.getErrorStatus(), new HashMap<String, String>(),
+                parser.getErrorStatus().getCode() + " - " + parser.getErrorMessage());
+        response.setHeader("Content-Type", "text/plain");
+        response.setHeader("Content-Length", String.valueOf(HTTPResponseEncoder.utf8Length(response.Body())));
+        response.setHeader("Connection", "close");
+
+        return HTTPResponses.withStandardHeaders(response);
+    }
 
-                response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, body);
-                response.setHeader("Content-Type", "text/plain");
-                response.setHeader("Content-Length", String.valueOf(body.length()));
+    // Antwort auf eine Anfrage, die nicht innerhalb von headerTimeout bzw. readTimeout eingetroffen ist; wird auch vom HTTPReactor genutzt
+    static HTTPResponse timeoutResponse() {
+        HTTPResponse<String> response = HTTPResponses.text(HTTPResponse.HTTPStatusCode.REQUEST_TIMEOUT, "408 - Request Timeout!");
+        response.setHeader("Content-Length", String.valueOf(HTTPResponseEncoder.utf8Length(response.Body())));
+        response.setHeader("Connection", "close");
+        return response;
+    }
 
-                return setStandardHeaders(response);
-            default:
-                break;
+    /*
+     * Entscheidet, ob die Verbindung nach dieser Antwort offen bleibt (HTTP/1.1: standardmaessig ja,
+     * HTTP/1.0: nur mit "Connection: keep-alive"), und setzt die Header Connection, Keep-Alive
+     * und Content-Length (bzw. Transfer-Encoding bei einem StreamingBody) entsprechend. Bei HEAD wird
+     * der Body danach verworfen.
+     * Wird auch von der NIO-Engine (HTTPReactor) genutzt.
+     */
+    static boolean applyConnectionHeaders(HTTPServer server, HTTPRequest request, HTTPResponse response, int requestCount) throws IOException {
+        String connection = request.getHeader("Connection");
+        boolean keepAlive;
+        if ("HTTP/1.0".equals(request.getHttpVersion())) {
+            keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+        } else {
+            keepAlive = connection == null || !connection.equalsIgnoreCase("close");
         }
-
-        /* Überprüfe, ob die angeforderte Datei existiert */
-        System.err.println("Request Path: " + request.getPath());
-        File file = new File(server.rootPath + request.getPath());
-
-        if (!file.exists()) {
-            // Datei nicht gefunden
-            String body = "404 - File not found!)";
-
-            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.NOT_FOUND, headers, body);
-            response.setHeader("Content-Type", "text/plain");
-
-            return setStandardHeaders(response);
-        } else if (file.isDirectory()) {
-            // Verzeichnisinhalt anzeigen
-            File[] files = file.listFiles();
-
-            StringBuilder body = new StringBuilder();
-            body.append("<html><head><title>Directory Listing</title></head><body>");
-            body.append("<h1>Directory Listing</h1>");
-            body.append("<ul>");
-            for (File f : files) {
-                body.append("<li><a href=\"")
-                        .append(request.getPath().endsWith("/") ? request.getPath() : request.getPath() + "/")
-                        .append(f.getName())
-                        .append("\">")
-                        .append(f.getName())
-                        .append("</a></li>");
+        keepAlive = keepAlive && server.serviceRequested && requestCount < server.maxKeepAliveRequests;
+
+        /* Ohne Laengenangabe koennte der Client das Ende der Antwort nicht erkennen */
+        Object body = response.Body();
+        if (body instanceof HTTPResponse.StreamingBody && response.getHeader("Content-Length") != null) {
+            /* Laenge vom Handler bekannt (z.B. /echo): Body unveraendert ohne Chunks senden */
+        } else if (body instanceof String) {
+            response.setHeader("Content-Length", String.valueOf(HTTPResponseEncoder.utf8Length((String) body)));
+        } else if (body instanceof HTTPResponse.StreamingBody) {
+            if (HTTPServer.HTTP_VERSION.equals(request.getHttpVersion())) {
+                /* Laenge unbekannt: HTTP/1.1 grenzt den Body ueber Chunks ab */
+                response.setHeader("Transfer-Encoding", "chunked");
+            } else if (request.getMethod() != HTTPRequest.HTTPMethod.HEAD) {
+                /* HTTP/1.0 kennt kein chunked: Body puffern, um die genaue Laenge angeben zu koennen */
+                ByteBuffer content = HTTPResponseEncoder.readFully((HTTPResponse.StreamingBody) body);
+                response.setBody(content);
+                response.setHeader("Content-Length", String.valueOf(content.remaining()));
             }
-            body.append("</ul>");
-            body.append("</body></html>");
-
-            response = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, body.toString());
-            response.setHeader("Content-Type", "text/html");
+        } else if (body == null && response.getStatus() != HTTPResponse.HTTPStatusCode.NOT_MODIFIED) {
+            /* 304 hat nie einen Body; Content-Length wuerde dort die Laenge der 200-Antwort bezeichnen */
+            response.setHeader("Content-Length", "0");
+        }
 
-            return setStandardHeaders(response);
-        } else {
-            // Datei gefunden
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] data = new byte[(int) file.length()];
-                fis.read(data);
-
-                response = new HTTPResponse<byte[]>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.OK, headers, data);
-                response.setHeader("Content-Type", determineContentType(file));
-                response.setHeader("Content-Length", String.valueOf(file.length()));
-
-                return setStandardHeaders(response);
-            } catch (IOException e) {
-                HTTPResponse<String> errorResponse = new HTTPResponse<String>(HTTPServer.HTTP_VERSION, HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, headers, "500 - Internal Server Error!");
-                e.printStackTrace();
-                return setStandardHeaders(errorResponse);
+        if (request.getMethod() == HTTPRequest.HTTPMethod.HEAD) {
+            /* HEAD: Header wie bei GET (inkl. Content-Length), aber ohne Body; Dateien werden nicht gelesen */
+            if (body instanceof Closeable) {
+                ((Closeable) body).close();
             }
+            response.setBody(null);
+        }
+
+        if (!keepAlive) {
+            response.setHeader("Connection", "close");
+        } else if ("HTTP/1.0".equals(request.getHttpVersion())) {
+            response.setHeader("Connection", "keep-alive");
+            response.setHeader("Keep-Alive", "timeout=" + server.keepAliveTimeout / 1000 + ", max=" + server.maxKeepAliveRequests);
         }
+        return keepAlive;
     }
 
-    private String determineContentType(File file) {
-        String fileType = file.getName().split("\\.")[1];
-
-        switch (fileType) {
-            case "html":
-                return "text/html";
-            case "jpg":
-                return "image/jpeg";
-            case "gif":
-                return "image/gif";
-            case "ico":
-                return "image/x-icon";
-            case "pdf":
-                return "application/pdf";
-            default:
-                throw new UnsupportedOperationException("File type not supported!");
+    /*
+     * Erzeugt die HTTP-Antwort zu einer Anfrage ueber den HTTPRouter des Servers; wird auch von der
+     * NIO-Engine (HTTPReactor) genutzt. Fehler eines Handlers fuehren zu 500 statt zum Verbindungsabbruch.
+     */
+    static HTTPResponse generateHTTPResponse(HTTPServer server, HTTPRequest request) {
+        try {
+            return server.router.handle(request);
+        } catch (IOException | RuntimeException e) {
+            server.log.error("Error while handling " + request.getPath(), e);
+            return HTTPResponses.text(HTTPResponse.HTTPStatusCode.INTERNAL_SERVER_ERROR, "500 - Internal Server Error!");
         }
     }
 
-    private HTTPResponse setStandardHeaders(HTTPResponse response) {
-        response.setHeader("Date", Instant.now().toString());
-        response.setHeader("Server", "Simple Java HTTP Server");
+    // Lese den Input Stream vom Client und erstelle ein HTTPRequest Objekt (null bei Verbindungsende oder Fehler)
+    private HTTPRequest<HTTPRequestBody> readHTTPRequest() throws IOException {
+        parser.reset();
+        parseStart = 0;
+        while (true) {
+            /* Die Parse-Latenz zaehlt ab dem ersten Byte der Anfrage, nicht ab Beginn des Leerlaufs */
+            if (parseStart == 0 && inBuffer.hasRemaining()) {
+                parseStart = System.nanoTime();
+            }
+            if (parser.parse(inBuffer)) {
+                break;
+            }
+            if (parser.takeContinueExpected()) {
+                /* Client wartet auf die Freigabe, bevor er den Body sendet */
+                writeFully(HTTPResponseEncoder.continueResponse());
+            }
+            updateReadTimeout();
+            if (!markIdle(parser.isIdle() && parseStart == 0)) {
+                /* Server wird beendet: keine weitere Anfrage auf dieser Verbindung annehmen */
+                return null;
+            }
+            int count = readFromClient(inBuffer);
+            idle = false;
+            if (count < 0) {
+                /* Verbindungsende zwischen zwei Anfragen ist regulaer, mitten in einer Anfrage nicht */
+                if (parser.isIdle()) {
+                    return null;
+                }
+                throw new EOFException("Connection closed during request");
+            }
+        }
+        return parser.getRequest();
+    }
 
-        return response;
+    // Meldet vor dem Lesen, ob zwischen zwei Anfragen gewartet wird; false, wenn der Server bereits beendet wird
+    private synchronized boolean markIdle(boolean waitingForRequest) {
+        idle = waitingForRequest;
+        return !(waitingForRequest && !server.serviceRequested);
     }
 
-    // Lese den Input Stream vom Client und erstelle ein HTTPRequest Objekt
-    private HTTPRequest readHTTPRequest() throws IOException {
-        String curLine = readFromClient();
-        String status[] = curLine.split(" ");
+    /*
+     * Setzt das Lese-Timeout vor dem naechsten read: zwischen zwei Anfragen das Keep-Alive-Timeout,
+     * innerhalb einer Anfrage readTimeout, begrenzt durch die Restzeit bis headerTimeout ab dem ersten Byte
+     */
+    private void updateReadTimeout() throws IOException {
+        if (parser.isIdle() && parseStart == 0) {
+            socket.setSoTimeout(server.keepAliveTimeout);
+            return;
+        }
+        long timeout = server.readTimeout;
+        if (parser.isReadingHeader()) {
+            long remaining = server.headerTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - parseStart);
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Header timeout");
+            }
+            timeout = Math.min(timeout, remaining);
+        }
+        socket.setSoTimeout((int) Math.max(1, timeout));
+    }
 
-        Map<String, String> headers = new HashMap<String, String>();
+    // Lese die naechsten Bytes vom Client InputStream in den (vollstaendig geparsten) Puffer
+    private int readFromClient(ByteBuffer buffer) throws IOException {
+        /* Lies die naechsten Bytes der Anfrage (request) vom Client
+         * ALLE Anfragen vom Client müssen über diese Methode empfangen werden ("Sub-Layer") */
+        buffer.clear();
+        int count = inFromClient.read(buffer.array(), 0, buffer.capacity());
+        buffer.limit(Math.max(count, 0));
+        return count;
+    }
 
-        curLine = readFromClient();
-        while (!curLine.isEmpty() && curLine != CRLF) {
-            String[] headerParts = curLine.split(": ");
-            headers.put(headerParts[0], headerParts[1]);
+    // Schreibe eine HTTPResponse zum Client; liefert die Zahl der tatsaechlich gesendeten Bytes
+    private long writeToClient(HTTPResponse response) throws IOException {
+        /* Sende die Antwort zum Client: Statuszeile, Header und kleine Bodies in einem Puffer,
+         * Datei-Bodies per transferTo (sendfile)
+         * ALLE Antworten an den Client müssen über diese Methode gesendet werden ("Sub-Layer") */
+        lastWriteProgress = System.nanoTime();
+        writing = true;
+        ProgressTrackingChannel channel = clientChannel();
+        try {
+            HTTPResponseEncoder.write(response, channel);
+            return channel.written;
+        } finally {
+            writing = false;
+        }
+    }
 
-            curLine = readFromClient();
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        WritableByteChannel channel = clientChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
+    }
 
-        HTTPRequest request = new HTTPRequest(
-                HTTPRequest.HTTPMethod.parseMethodString(status[0]),
-                status[1],
-                status[2],
-                headers,
-                null);
-
-//        StringBuilder bodyStringBuilder = new StringBuilder();
-//        curLine = readFromClient();
-//        System.out.println(curLine);
-//        while(curLine != null && !curLine.isEmpty()) {
-//            bodyStringBuilder.append(curLine);
-//            curLine = readFromClient();
-//        }
-//        System.err.println("ffwfwf");
-//        request.setBody(bodyStringBuilder.toString());
-
-        return request;
+    private ProgressTrackingChannel clientChannel() {
+        return new ProgressTrackingChannel(socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(outToClient));
     }
 
-    // Lese eine Zeile vom Client InputStream
-    private String readFromClient() throws IOException {
-        /* Lies die naechste Anfrage-Zeile (request) vom Client
-         * ALLE Anfragen vom Client müssen über diese Methode empfangen werden ("Sub-Layer") */
+    /*
+     * Meldet jeden Schreibvorgang als Fortschritt an den Watchdog und zaehlt die gesendeten Bytes;
+     * Dateien gehen weiterhin per sendfile an target
+     */
+    private final class ProgressTrackingChannel implements HTTPResponseEncoder.ProgressChannel {
+        private final WritableByteChannel target;
+        long written;
 
-        return inFromClient.readLine();
-    }
+        ProgressTrackingChannel(WritableByteChannel target) {
+            this.target = target;
+        }
 
-    // Schreibe eine HTTPResponse zum Client OutputStream
-    private void writeToClient(HTTPResponse response) throws IOException {
-        writeToClient(response.getHttpVersion() + " " + response.getStatusCode() + " " + response.getStatusMessage());
-        response.Headers().forEach((key, value) -> {
-            try {
-                writeToClient(key + ": " + value);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        writeToClient("");
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int count = target.write(src);
+            progress(count);
+            return count;
+        }
 
-        if (response.Body() != null) {
-            writeToClient(
-                    response.Body() instanceof String ? ((String) response.Body()).getBytes() : (byte[]) response.Body()
-            );
+        @Override
+        public WritableByteChannel target() {
+            return target;
         }
-    }
 
-    // Schreibe eine Zeile zum Client OutputStream
-    private void writeToClient(String line) throws IOException {
-        /* Sende eine Antwortzeile zum Client
-         * ALLE Antworten an den Client müssen über diese Methode gesendet werden ("Sub-Layer") */
-        outToClient.write((line + CRLF).getBytes());
-    }
+        @Override
+        public void progress(long bytes) {
+            written += bytes;
+            lastWriteProgress = System.nanoTime();
+        }
 
-    // Schreibe ein Byte-Array zum Client OutputStream
-    private void writeToClient(byte[] data) throws IOException {
-        /* Sende Daten zum Client
-         * ALLE Antworten an den Client müssen über diese Methode gesendet werden ("Sub-Layer") */
-        outToClient.write(data);
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
     }
 }
@@ -0,0 +1,103 @@
+import benchmarks.ServerOps;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * ServerBridge.java
+ *
+ * Zweck: Liegt wie die Serverklassen im Default-Package und hat damit Zugriff auf deren
+ *        package-private Methoden. Wird von den JMH-Benchmarks ueber ServerOps angesprochen.
+ */
+public class ServerBridge implements ServerOps {
+    private HTTPServer server;
+    private final HTTPRequestParser parser = new HTTPRequestParser();
+
+    @Override
+    public void init(String rootPath) {
+        server = new HTTPServer(0, HTTPServer.DEFAULT_MAX_CONNECTIONS, rootPath);
+        server.contentCache = new HTTPContentCache(server.contentCacheBytes, server.contentCacheMaxEntryBytes, server.contentCacheDirect);
+    }
+
+    @Override
+    public Object parseLegacy(byte[] request) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(request)));
+        String[] status = in.readLine().split(" ");
+        Map<String, String> headers = new HashMap<String, String>();
+        String curLine = in.readLine();
+        while (curLine != null && !curLine.isEmpty()) {
+            String[] headerParts = curLine.split(": ");
+            headers.put(headerParts[0], headerParts[1]);
+            curLine = in.readLine();
+        }
+        return new HTTPRequest<String>(HTTPRequest.HTTPMethod.parseMethodString(status[0]), status[1], status[2], headers, null);
+    }
+
+    @Override
+    public Object parse(ByteBuffer request) {
+        parser.reset();
+        parser.parse(request);
+        return parser.getRequest();
+    }
+
+    @Override
+    public Object request(String path) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Host", "localhost");
+        headers.put("User-Agent", "curl/8.5.0");
+        return new HTTPRequest<String>(HTTPRequest.HTTPMethod.GET, path, HTTPServer.HTTP_VERSION, headers, null);
+    }
+
+    @Override
+    public Object generateResponse(Object request) {
+        return HTTPWorkerThread.generateHTTPResponse(server, (HTTPRequest) request);
+    }
+
+    @Override
+    public void writeResponse(Object request, Object response, WritableByteChannel channel) throws IOException {
+        HTTPWorkerThread.applyConnectionHeaders(server, (HTTPRequest) request, (HTTPResponse) response, 1);
+        HTTPResponseEncoder.write((HTTPResponse<?>) response, channel);
+    }
+
+    @Override
+    public String determineContentType(String fileName) {
+        return HTTPStaticFileHandler.determineContentType(new File(fileName));
+    }
+
+    @Override
+    public int startServer(String mode, String rootPath) throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        HTTPServer liveServer = new HTTPServer(port, 10000, rootPath, HTTPServer.ServerMode.valueOf(mode));
+        Thread serverThread = new Thread(liveServer::startServer, "HTTP Server " + mode);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        /* Warten, bis der Server Verbindungen annimmt */
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (Socket socket = new Socket("localhost", port)) {
+                return port;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        throw new IOException("Server did not start on port " + port);
+    }
+}
@@ -0,0 +1,127 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * EndToEndBenchmark.java
+ *
+ * Zweck: Durchsatz und Latenz (p50/p99 im Modus SampleTime) eines laufenden HTTPServer ueber
+ *        Loopback. Jeder Benchmark-Thread haelt eine eigene Keep-Alive-Verbindung; die Anzahl
+ *        paralleler Clients wird mit -t gesetzt.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"NIO", "VIRTUAL_THREADS", "THREAD_PER_CONNECTION"})
+        public String mode;
+
+        int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            port = ServerOps.load().startServer(mode, ServerOps.htmlRoot());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        @Param({"/time", "/index.html", "/Notmyjob6.jpg"})
+        public String path;
+
+        int port;
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        byte[] request;
+        boolean connectionClose;
+        final byte[] body = new byte[64 * 1024];
+
+        @Setup(Level.Trial)
+        public void setup(Server server) throws IOException {
+            port = server.port;
+            request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: curl/8.5.0\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            connect();
+        }
+
+        // Neue Verbindung, z.B. nachdem der Server maxKeepAliveRequests erreicht hat
+        void connect() throws IOException {
+            if (socket != null) {
+                socket.close();
+            }
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        // Sendet die Anfrage und liest die Antwort anhand von Content-Length vollstaendig
+        long exchange() throws IOException {
+            out.write(request);
+            connectionClose = false;
+            long contentLength = readHeaders();
+            long remaining = contentLength;
+            while (remaining > 0) {
+                int count = in.read(body, 0, (int) Math.min(body.length, remaining));
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                remaining -= count;
+            }
+            if (connectionClose) {
+                connect();
+            }
+            return contentLength;
+        }
+
+        private long readHeaders() throws IOException {
+            StringBuilder line = new StringBuilder();
+            long contentLength = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                if (b == '\n') {
+                    if (line.length() == 0) {
+                        return contentLength;
+                    }
+                    String header = line.toString();
+                    if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                        contentLength = Long.parseLong(header.substring(15).trim());
+                    } else if (header.equalsIgnoreCase("Connection: close")) {
+                        connectionClose = true;
+                    }
+                    line.setLength(0);
+                } else if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long request(Client client) throws IOException {
+        return client.exchange();
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RequestParserBenchmark.java
+ *
+ * Zweck: Vergleicht den HTTPRequestParser (HTTPWorkerThread.readHTTPRequest) mit dem frueheren
+ *        zeilenweisen Einlesen per BufferedReader + String.split.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+    private static final byte[] BROWSER_REQUEST = ("GET /Bilder/Foto3.html HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: de,en-US;q=0.7,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: http://localhost/Bilder/Foto2.html\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CURL_REQUEST = ("GET /time HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "User-Agent: curl/8.5.0\r\n"
+            + "Accept: */*\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"browser", "curl"})
+    public String request;
+
+    private ServerOps ops;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        ops = ServerOps.load();
+        bytes = request.equals("browser") ? BROWSER_REQUEST : CURL_REQUEST;
+        buffer = ByteBuffer.wrap(bytes);
+    }
+
+    @Benchmark
+    public Object legacyReader() throws IOException {
+        return ops.parseLegacy(bytes);
+    }
+
+    @Benchmark
+    public Object byteParser() {
+        buffer.clear();
+        return ops.parse(buffer);
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ResponseBenchmark.java
+ *
+ * Zweck: Misst generateHTTPResponse je Route (/time, /date, Verzeichnisliste, statische Dateien),
+ *        das Senden per writeToClient (HTTPResponseEncoder, in einen verwerfenden Kanal) sowie
+ *        determineContentType.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+    @Param({"/time", "/date", "/Bilder/", "/index.html", "/Notmyjob6.jpg", "/Faust_I_.pdf"})
+    public String path;
+
+    private ServerOps ops;
+    private Object request;
+    private final NullChannel channel = new NullChannel();
+
+    @Setup
+    public void setup() {
+        ops = ServerOps.load();
+        ops.init(ServerOps.htmlRoot());
+        request = ops.request(path);
+    }
+
+    @Benchmark
+    public Object generateHTTPResponse() {
+        return ops.generateResponse(request);
+    }
+
+    @Benchmark
+    public long generateAndWrite() throws IOException {
+        ops.writeResponse(request, ops.generateResponse(request), channel);
+        return channel.written;
+    }
+
+    @Benchmark
+    public String determineContentType() {
+        return ops.determineContentType(path.endsWith("/") ? "index.html" : path.substring(1));
+    }
+
+    /* Kanal, der alle Bytes verwirft und nur zaehlt */
+    static class NullChannel implements GatheringByteChannel {
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                count += write(srcs[i]);
+            }
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
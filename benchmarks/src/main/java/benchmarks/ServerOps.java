@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * ServerOps.java
+ *
+ * Zweck: Die Serverklassen liegen im Default-Package und koennen aus einem benannten Package
+ *        (das JMH fuer Benchmarks verlangt) nicht direkt angesprochen werden. ServerBridge im
+ *        Default-Package implementiert dieses Interface; die Benchmarks erzeugen sie einmalig per
+ *        Reflection und rufen danach nur noch diese Methoden auf. Server-Objekte werden als Object
+ *        durchgereicht.
+ */
+public interface ServerOps {
+    // Legt einen HTTPServer (ohne ihn zu starten) samt Content-Cache fuer rootPath an
+    void init(String rootPath);
+
+    // Frueheres readHTTPRequest(): BufferedReader + String.split
+    Object parseLegacy(byte[] request) throws IOException;
+
+    // HTTPRequestParser, wie ihn HTTPWorkerThread.readHTTPRequest() verwendet
+    Object parse(ByteBuffer request);
+
+    // GET-Anfrage auf path mit akzeptiertem User-Agent
+    Object request(String path);
+
+    // HTTPWorkerThread.generateHTTPResponse
+    Object generateResponse(Object request);
+
+    // HTTPWorkerThread.applyConnectionHeaders + writeToClient (HTTPResponseEncoder)
+    void writeResponse(Object request, Object response, WritableByteChannel channel) throws IOException;
+
+    // HTTPStaticFileHandler.determineContentType
+    String determineContentType(String fileName);
+
+    // Startet einen echten Server auf einem freien Port und liefert den Port
+    int startServer(String mode, String rootPath) throws IOException;
+
+    static ServerOps load() {
+        try {
+            return (ServerOps) Class.forName("ServerBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ServerBridge not on classpath", e);
+        }
+    }
+
+    // Wurzelverzeichnis der Testdateien: -Dhtml.root, sonst html/ oder ../html/
+    static String htmlRoot() {
+        String root = System.getProperty("html.root");
+        if (root == null) {
+            root = new java.io.File("html").isDirectory() ? "html" : "../html";
+        }
+        return new java.io.File(root).getAbsolutePath();
+    }
+}